@@ -0,0 +1,178 @@
+package me.pv5mc.landslide;
+
+/*
+This file is part of Landslide
+
+Landslide is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Landslide is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Landslide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.plugin.IllegalPluginAccessException;
+
+import me.pv5mc.dhutils.Debugger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Evaluates the slide rules for large numbers of candidate blocks off the main thread.
+ * <p>
+ * The main thread captures snapshots of the chunks covering the candidates and hands them to a
+ * worker, which runs the {@link SlideRules} against the snapshots.  The resulting directions come
+ * back to the main thread, which re-validates each block (it must still be the same type), picks
+ * a final direction against the currently pending slides, and schedules the survivors as one
+ * batch.
+ */
+public class AsyncSlideEvaluator {
+    public interface Callback {
+        /**
+         * Called on the main thread once all candidates have been processed.
+         *
+         * @param scheduled the number of blocks which were scheduled to slide
+         */
+        public void done(int scheduled);
+    }
+
+    private final LandslidePlugin plugin;
+    private ExecutorService executor;
+
+    public AsyncSlideEvaluator(LandslidePlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    public void start() {
+        if (executor == null) {
+            final AtomicInteger n = new AtomicInteger();
+            int nThreads = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+            executor = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Landslide evaluator #" + n.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+    }
+
+    /**
+     * Run some other off-thread work on the evaluator's worker threads.
+     *
+     * @param task the task
+     */
+    public void execute(Runnable task) {
+        start();
+        executor.execute(task);
+    }
+
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Evaluate a set of candidate positions.  Must be called from the main thread.
+     *
+     * @param world        the world containing the candidates
+     * @param positions    packed block positions, see {@link BlockPos}
+     * @param count        number of positions to use from the array
+     * @param requiredType only consider blocks of this type ID, or -1 for any type
+     * @param callback     receives the results, on the main thread
+     */
+    public void evaluate(final World world, final long[] positions, final int count, final int requiredType, final Callback callback) {
+        final SlideRules rules = plugin.getSlideManager().getRules();
+        WorldContext ctx = plugin.getPerWorldConfig().getContext(world);
+        final boolean horizontal = ctx.getHorizontalSlides();
+        final boolean intoLiquid = ctx.getSlideIntoLiquid();
+        final SnapshotBlockSource src = new SnapshotBlockSource(world.getMaxHeight());
+
+        // bracing checks may look beyond the immediate neighbours
+        int r = Math.max(1, rules.getBracingDistance());
+        for (int i = 0; i < count; i++) {
+            int x = BlockPos.getX(positions[i]), z = BlockPos.getZ(positions[i]);
+            for (int cx = (x - r) >> 4; cx <= (x + r) >> 4; cx++) {
+                for (int cz = (z - r) >> 4; cz <= (z + r) >> 4; cz++) {
+                    if (!src.contains(cx, cz) && world.isChunkLoaded(cx, cz)) {
+                        src.add(world.getChunkAt(cx, cz).getChunkSnapshot());
+                    }
+                }
+            }
+        }
+
+        start();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final int[] types = new int[count];
+                final int[] masks = new int[count];
+                BlockAccess nb = new BlockAccess();
+                for (int i = 0; i < count; i++) {
+                    long pos = positions[i];
+                    int x = BlockPos.getX(pos), y = BlockPos.getY(pos), z = BlockPos.getZ(pos);
+                    types[i] = src.getTypeId(x, y, z);
+                    if (types[i] != 0 && (requiredType < 0 || types[i] == requiredType)) {
+                        masks[i] = rules.getSlideDirections(nb.load(src, x, y, z), x, y, z, horizontal, intoLiquid);
+                    }
+                }
+                try {
+                    Bukkit.getScheduler().runTask(plugin, new Runnable() {
+                        @Override
+                        public void run() {
+                            // the plugin may have been disabled while the task was queued
+                            if (plugin.isEnabled()) {
+                                applyResults(world, positions, types, masks, callback);
+                            }
+                        }
+                    });
+                } catch (IllegalPluginAccessException e) {
+                    // the plugin has been disabled; the results are no use now anyway
+                }
+            }
+        });
+    }
+
+    private void applyResults(World world, long[] positions, int[] types, int[] masks, Callback callback) {
+        SlideManager slideManager = plugin.getSlideManager();
+        List<Block> blocks = new ArrayList<Block>();
+        List<BlockFace> faces = new ArrayList<BlockFace>();
+        for (int i = 0; i < masks.length; i++) {
+            if (masks[i] == 0) {
+                continue;
+            }
+            long pos = positions[i];
+            Block b = world.getBlockAt(BlockPos.getX(pos), BlockPos.getY(pos), BlockPos.getZ(pos));
+            if (b.getTypeId() != types[i]) {
+                // changed while we were thinking about it
+                continue;
+            }
+            BlockFace face = slideManager.chooseDirection(world, pos, masks[i]);
+            if (face != null) {
+                blocks.add(b);
+                faces.add(face);
+            }
+        }
+        int n = slideManager.scheduleBlockSlides(world, blocks, faces);
+        Debugger.getInstance().debug("async evaluation: " + masks.length + " candidates, " + blocks.size() + " can slide, " + n + " scheduled");
+        callback.done(n);
+    }
+}
@@ -0,0 +1,126 @@
+package me.pv5mc.landslide;
+
+/*
+This file is part of Landslide
+
+Landslide is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Landslide is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Landslide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A window of blocks around one position, fetched from a backing {@link BlockSource} in a single
+ * pass and held as packed type ID and data.  The window holds the 15 blocks the slide rules look
+ * at: the block and its four horizontal neighbours, and the same five positions in the layers
+ * above and below.  Reads inside the window come from the buffer; reads outside it (the diagonal
+ * neighbours, or longer-range bracing checks) fall through to the backing source.
+ * <p>
+ * Block data is fetched lazily on first use, since with a live world each data lookup costs a
+ * Block object, and most checks only need the type.  An instance holds mutable state, so each
+ * thread needs its own.
+ */
+public class BlockAccess implements BlockSource {
+    private static final int DATA_UNKNOWN = 0x10;
+
+    // (typeId << 5) | DATA_UNKNOWN | data
+    private final int[] cells = new int[15];
+    private BlockSource backing;
+    private int cx, cy, cz;
+
+    /**
+     * Load the neighbourhood of the given position.
+     *
+     * @param backing where to read blocks from
+     * @param x       centre X
+     * @param y       centre Y
+     * @param z       centre Z
+     * @return this object
+     */
+    public BlockAccess load(BlockSource backing, int x, int y, int z) {
+        this.backing = backing;
+        cx = x;
+        cy = y;
+        cz = z;
+        // same order as index(): west, centre, east, north, south
+        int i = 0;
+        for (int by = y - 1; by <= y + 1; by++) {
+            cells[i++] = (backing.getTypeId(x - 1, by, z) << 5) | DATA_UNKNOWN;
+            cells[i++] = (backing.getTypeId(x, by, z) << 5) | DATA_UNKNOWN;
+            cells[i++] = (backing.getTypeId(x + 1, by, z) << 5) | DATA_UNKNOWN;
+            cells[i++] = (backing.getTypeId(x, by, z - 1) << 5) | DATA_UNKNOWN;
+            cells[i++] = (backing.getTypeId(x, by, z + 1) << 5) | DATA_UNKNOWN;
+        }
+        return this;
+    }
+
+    /**
+     * Replace a block in the buffer, e.g. to account for a change which has been decided on but
+     * not yet made in the world.  Positions outside the window are ignored.
+     *
+     * @param x      block X
+     * @param y      block Y
+     * @param z      block Z
+     * @param typeId the block type ID
+     * @param data   the block data
+     */
+    public void override(int x, int y, int z, int typeId, int data) {
+        int i = index(x, y, z);
+        if (i >= 0) {
+            cells[i] = (typeId << 5) | (data & 0xF);
+        }
+    }
+
+    public int getCentreX() {
+        return cx;
+    }
+
+    public int getCentreY() {
+        return cy;
+    }
+
+    public int getCentreZ() {
+        return cz;
+    }
+
+    @Override
+    public int getTypeId(int x, int y, int z) {
+        int i = index(x, y, z);
+        return i < 0 ? backing.getTypeId(x, y, z) : cells[i] >> 5;
+    }
+
+    @Override
+    public int getData(int x, int y, int z) {
+        int i = index(x, y, z);
+        if (i < 0) {
+            return backing.getData(x, y, z);
+        }
+        int cell = cells[i];
+        if ((cell & DATA_UNKNOWN) != 0) {
+            cell = (cell & ~0x1F) | (backing.getData(x, y, z) & 0xF);
+            cells[i] = cell;
+        }
+        return cell & 0xF;
+    }
+
+    private int index(int x, int y, int z) {
+        int dx = x - cx + 1, dy = y - cy + 1, dz = z - cz + 1;
+        if ((dx | dy | dz) < 0 || dx > 2 || dy > 2 || dz > 2) {
+            return -1;
+        } else if (dz == 1) {
+            return dy * 5 + dx;
+        } else if (dx == 1) {
+            return dy * 5 + 3 + (dz >> 1);
+        }
+        // a diagonal neighbour
+        return -1;
+    }
+}
@@ -0,0 +1,220 @@
+package me.pv5mc.landslide;
+
+/*
+This file is part of Landslide
+
+Landslide is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Landslide is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Landslide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import org.bukkit.World;
+import org.bukkit.block.Block;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Collects block changes made during a tick and applies them in one pass, chunk by chunk.
+ * <p>
+ * Only blocks with a neighbour outside the batch are written with physics; a block surrounded
+ * entirely by other changed blocks has nobody to notify.  While the batch is being written,
+ * block physics events are not acted on directly but recorded via {@link #deferNeighbour(Block)};
+ * once every change has been written, each recorded position is handed to a single
+ * {@link NeighbourCheck}, in chunk order, however many physics events it received.
+ * <p>
+ * Changes added while the batch is being written are written by a further pass; only if they
+ * keep coming are they left for the next time the batch is applied.
+ */
+public class BlockChangeBatch {
+    private static final int MAX_PASSES = 4;
+
+    public interface NeighbourCheck {
+        public void check(Block block);
+    }
+
+    private final List<World> worlds = new ArrayList<World>();
+    private final List<LongIntHashMap> changes = new ArrayList<LongIntHashMap>();
+    private final LongHashSet deferred = new LongHashSet(256);
+    private long[] scratch = new long[256];
+    private int[] written = new int[256];
+    private int nWorlds;
+    private boolean applying;
+    // the most recently used world's changes; consecutive lookups are nearly always for the same world
+    private World lastWorld;
+    private LongIntHashMap lastChanges;
+
+    /**
+     * Record a change to be written when the batch is applied.  A later change to the same
+     * block replaces an earlier one.
+     *
+     * @param world  the world
+     * @param pos    the packed block position
+     * @param typeId the new block type ID
+     * @param data   the new block data
+     */
+    public void add(World world, long pos, int typeId, byte data) {
+        getChanges(world).put(pos, (typeId << 4) | (data & 0xF));
+    }
+
+    /**
+     * Get the change pending for a block, if any.
+     *
+     * @param world the world
+     * @param pos   the packed block position
+     * @return the pending (type ID &lt;&lt; 4 | data), or -1 if no change is pending
+     */
+    public int getPending(World world, long pos) {
+        if (world == lastWorld) {
+            return lastChanges.get(pos, -1);
+        }
+        for (int i = 0; i < nWorlds; i++) {
+            if (worlds.get(i) == world) {
+                lastWorld = world;
+                lastChanges = changes.get(i);
+                return lastChanges.get(pos, -1);
+            }
+        }
+        return -1;
+    }
+
+    public boolean isApplying() {
+        return applying;
+    }
+
+    public boolean isEmpty() {
+        return nWorlds == 0;
+    }
+
+    /**
+     * Note that a block received a physics update while the batch was being written.
+     *
+     * @param block the block
+     */
+    public void deferNeighbour(Block block) {
+        deferred.add(BlockPos.pack(block));
+    }
+
+    /**
+     * Write all pending changes and run the neighbour check once for each block that was
+     * disturbed by them.
+     *
+     * @param neighbourCheck called for each disturbed block
+     */
+    public void apply(NeighbourCheck neighbourCheck) {
+        for (int w = 0; w < nWorlds; w++) {
+            World world = worlds.get(w);
+            LongIntHashMap worldChanges = changes.get(w);
+
+            for (int pass = 0; pass < MAX_PASSES && !worldChanges.isEmpty(); pass++) {
+                int n = sortedKeys(worldChanges.rawKeys(), worldChanges.size());
+                if (written.length < n) {
+                    written = new int[scratch.length];
+                }
+                applying = true;
+                try {
+                    for (int i = 0; i < n; i++) {
+                        long pos = BlockPos.fromChunkOrder(scratch[i]);
+                        int val = worldChanges.get(pos, 0);
+                        written[i] = val;
+                        Block b = world.getBlockAt(BlockPos.getX(pos), BlockPos.getY(pos), BlockPos.getZ(pos));
+                        b.setTypeIdAndData(val >> 4, (byte) (val & 0xF), hasOutsideNeighbour(worldChanges, pos));
+                    }
+                } finally {
+                    applying = false;
+                }
+                // anything added or replaced by a physics handler during the write is still there for the next pass
+                for (int i = 0; i < n; i++) {
+                    long pos = BlockPos.fromChunkOrder(scratch[i]);
+                    if (worldChanges.get(pos, -1) == written[i]) {
+                        worldChanges.remove(pos);
+                    }
+                }
+            }
+
+            int n = sortedKeys(deferred.rawKeys(), deferred.size());
+            deferred.clear();
+            for (int i = 0; i < n; i++) {
+                long pos = BlockPos.fromChunkOrder(scratch[i]);
+                neighbourCheck.check(world.getBlockAt(BlockPos.getX(pos), BlockPos.getY(pos), BlockPos.getZ(pos)));
+            }
+        }
+
+        // keep any worlds with changes still pending (made by the neighbour checks, or by more
+        // passes than allowed) for next time
+        int kept = 0;
+        for (int w = 0; w < nWorlds; w++) {
+            LongIntHashMap worldChanges = changes.get(w);
+            if (!worldChanges.isEmpty()) {
+                World world = worlds.get(w);
+                changes.set(w, changes.get(kept));
+                changes.set(kept, worldChanges);
+                worlds.set(kept++, world);
+            }
+        }
+        for (int w = kept; w < nWorlds; w++) {
+            worlds.set(w, null);
+        }
+        nWorlds = kept;
+        lastWorld = null;
+        lastChanges = null;
+    }
+
+    private LongIntHashMap getChanges(World world) {
+        if (world == lastWorld) {
+            return lastChanges;
+        }
+        lastWorld = world;
+        lastChanges = findChanges(world);
+        return lastChanges;
+    }
+
+    private LongIntHashMap findChanges(World world) {
+        for (int i = 0; i < nWorlds; i++) {
+            if (worlds.get(i) == world) {
+                return changes.get(i);
+            }
+        }
+        if (nWorlds == worlds.size()) {
+            worlds.add(world);
+            changes.add(new LongIntHashMap(64));
+        } else {
+            worlds.set(nWorlds, world);
+        }
+        return changes.get(nWorlds++);
+    }
+
+    private boolean hasOutsideNeighbour(LongIntHashMap worldChanges, long pos) {
+        for (int i = 0; i < LandslidePlugin.allFaces.length; i++) {
+            long n = BlockPos.offset(pos, LandslidePlugin.allFaces[i].getModX(), LandslidePlugin.allFaces[i].getModY(), LandslidePlugin.allFaces[i].getModZ());
+            if (!worldChanges.containsKey(n)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int sortedKeys(long[] keys, int size) {
+        if (scratch.length < size) {
+            scratch = new long[Math.max(size, scratch.length * 2)];
+        }
+        int n = 0;
+        for (long k : keys) {
+            if (k != Long.MIN_VALUE) {
+                scratch[n++] = BlockPos.toChunkOrder(k);
+            }
+        }
+        Arrays.sort(scratch, 0, n);
+        return n;
+    }
+}
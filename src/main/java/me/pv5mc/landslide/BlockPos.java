@@ -0,0 +1,97 @@
+package me.pv5mc.landslide;
+
+/*
+This file is part of Landslide
+
+Landslide is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Landslide is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Landslide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import org.bukkit.block.Block;
+
+/**
+ * Pack block coordinates into a single long: 26 bits of X, 26 bits of Z and 12 bits of Y.
+ * This comfortably covers the +/-30,000,000 world border and any sane build height, and lets
+ * positions be stored in primitive arrays rather than as Location objects.
+ */
+public final class BlockPos {
+    private BlockPos() {
+    }
+
+    public static long pack(int x, int y, int z) {
+        return ((long) (x & 0x3FFFFFF) << 38) | ((long) (z & 0x3FFFFFF) << 12) | (y & 0xFFF);
+    }
+
+    public static long pack(Block b) {
+        return pack(b.getX(), b.getY(), b.getZ());
+    }
+
+    public static int getX(long pos) {
+        return (int) (pos >> 38);
+    }
+
+    public static int getY(long pos) {
+        return (int) (pos << 52 >> 52);
+    }
+
+    public static int getZ(long pos) {
+        return (int) (pos << 26 >> 38);
+    }
+
+    public static long offset(long pos, int dx, int dy, int dz) {
+        return pack(getX(pos) + dx, getY(pos) + dy, getZ(pos) + dz);
+    }
+
+    /**
+     * Get a key for the chunk containing the given packed position.
+     *
+     * @param pos a packed block position
+     * @return the chunk key
+     */
+    public static long chunkKey(long pos) {
+        return chunkKey(getX(pos) >> 4, getZ(pos) >> 4);
+    }
+
+    public static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    public static int chunkKeyX(long key) {
+        return (int) (key >> 32);
+    }
+
+    public static int chunkKeyZ(long key) {
+        return (int) key;
+    }
+
+    /**
+     * Re-pack a position so that sorting the packed values groups positions by chunk: 22 bits each
+     * of chunk X and Z, then the 4-bit local X and Z and the 12-bit Y.
+     *
+     * @param pos a packed block position
+     * @return the position, packed in chunk order
+     */
+    public static long toChunkOrder(long pos) {
+        int x = getX(pos), z = getZ(pos);
+        return ((long) ((x >> 4) & 0x3FFFFF) << 42) | ((long) ((z >> 4) & 0x3FFFFF) << 20)
+                | ((x & 0xF) << 16) | ((z & 0xF) << 12) | (pos & 0xFFF);
+    }
+
+    public static long fromChunkOrder(long key) {
+        int cx = (int) (key >> 42);
+        int cz = (int) (key << 22 >> 42);
+        int x = (cx << 4) | (int) ((key >> 16) & 0xF);
+        int z = (cz << 4) | (int) ((key >> 12) & 0xF);
+        return pack(x, (int) (key << 52 >> 52), z);
+    }
+}
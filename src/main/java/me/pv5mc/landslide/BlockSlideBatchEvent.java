@@ -0,0 +1,129 @@
+package me.pv5mc.landslide;
+
+/*
+This file is part of Landslide
+
+Landslide is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Landslide is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Landslide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.event.Cancellable;
+import org.bukkit.event.Event;
+import org.bukkit.event.HandlerList;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Fired once for a whole group of blocks which are about to slide or be flung, e.g. all the
+ * blocks thrown by an explosion, or a mass slide evaluated in one go.  The event is fired once
+ * the plugin's own checks (slide limits and quotas, WorldGuard, blocks already on the move) have
+ * been made, so it only contains blocks which will move unless vetoed.  Listeners may veto
+ * individual blocks, or cancel the event to veto all of them.
+ * <p>
+ * For a mass slide, each block which isn't vetoed still gets its own {@link BlockSlideEvent}
+ * afterwards, so listeners which only know about that event keep working.
+ */
+public class BlockSlideBatchEvent extends Event implements Cancellable {
+    public enum Cause {
+        EXPLOSION,
+        MASS_SLIDE,
+    }
+
+    private static final HandlerList handlers = new HandlerList();
+
+    private final World world;
+    private final List<Block> blocks;
+    private final List<BlockFace> directions;
+    private final Cause cause;
+    private final BitSet vetoed;
+    private boolean isCancelled;
+
+    /**
+     * Create a new batch event.
+     *
+     * @param world      the world the blocks are in
+     * @param blocks     the blocks
+     * @param directions the slide direction for each block, or null if the blocks are being flung
+     * @param cause      why the blocks are moving
+     */
+    public BlockSlideBatchEvent(World world, List<Block> blocks, List<BlockFace> directions, Cause cause) {
+        this.world = world;
+        this.blocks = Collections.unmodifiableList(blocks);
+        this.directions = directions;
+        this.cause = cause;
+        this.vetoed = new BitSet(blocks.size());
+    }
+
+    public World getWorld() {
+        return world;
+    }
+
+    public Cause getCause() {
+        return cause;
+    }
+
+    public int size() {
+        return blocks.size();
+    }
+
+    public List<Block> getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * Get the direction in which the block at the given index will slide.
+     *
+     * @param idx index into the block list
+     * @return the slide direction, or BlockFace.SELF if the block is being flung
+     */
+    public BlockFace getSlideDirection(int idx) {
+        return directions == null ? BlockFace.SELF : directions.get(idx);
+    }
+
+    /**
+     * Prevent the block at the given index from moving.
+     *
+     * @param idx index into the block list
+     */
+    public void veto(int idx) {
+        vetoed.set(idx);
+    }
+
+    public boolean isVetoed(int idx) {
+        return isCancelled || vetoed.get(idx);
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return isCancelled;
+    }
+
+    @Override
+    public void setCancelled(boolean isCancelled) {
+        this.isCancelled = isCancelled;
+    }
+
+    @Override
+    public HandlerList getHandlers() {
+        return handlers;
+    }
+
+    public static HandlerList getHandlerList() {
+        return handlers;
+    }
+}
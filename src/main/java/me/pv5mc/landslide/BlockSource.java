@@ -0,0 +1,28 @@
+package me.pv5mc.landslide;
+
+/*
+This file is part of Landslide
+
+Landslide is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Landslide is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Landslide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Read-only access to block types and data by absolute coordinates.  This lets the slide rules be
+ * evaluated against either the live world (main thread only) or chunk snapshots (any thread).
+ */
+public interface BlockSource {
+    public int getTypeId(int x, int y, int z);
+
+    public int getData(int x, int y, int z);
+}
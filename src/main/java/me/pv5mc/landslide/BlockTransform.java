@@ -6,6 +6,7 @@ import org.bukkit.material.MaterialData;
 
 import me.pv5mc.dhutils.LogUtils;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -49,6 +50,10 @@ public class BlockTransform {
         }
     }
 
+    public Map<MaterialData, MaterialData> getMappings() {
+        return Collections.unmodifiableMap(map);
+    }
+
     public MaterialData get(MaterialData m) {
         MaterialData res = map.get(m);
         if (res == null) {
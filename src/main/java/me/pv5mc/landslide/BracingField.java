@@ -0,0 +1,311 @@
+package me.pv5mc.landslide;
+
+/*
+This file is part of Landslide
+
+Landslide is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Landslide is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Landslide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import org.bukkit.World;
+
+import java.util.Arrays;
+
+/**
+ * A per-chunk-section field holding, for each block, the Chebyshev distance to the nearest
+ * bracing material (capped at bracing distance + 1).  With this, the full bracing scan is a
+ * single array lookup rather than a scan of (2d+1)^3 blocks.
+ * <p>
+ * Sections are built lazily the first time they are queried, using a separable distance
+ * transform over the section plus a margin of d blocks, and are discarded when the rules change
+ * or the chunk unloads.  When a bracing block is placed or removed, its position is marked, and at
+ * the end of the tick the distances within d of it are recomputed from a small region around it.
+ * If a large number of positions were marked (e.g. by an explosion), the affected sections are
+ * simply discarded instead, to be rebuilt on demand.
+ * <p>
+ * Main thread only.
+ */
+public class BracingField {
+    private static final int MAX_PENDING_UPDATES = 16;
+
+    private SlideRules rules;
+    private int distance;
+    private World[] worlds = new World[4];
+    private LongObjectHashMap<?>[] sections = new LongObjectHashMap<?>[4];
+    private LongHashSet[] pending = new LongHashSet[4];
+    private byte[] region = new byte[0];
+    private byte[] line = new byte[0];
+
+    // the most recently used section, since consecutive lookups are usually close together
+    private int lastWorld = -1;
+    private long lastKey;
+    private byte[] lastSection;
+
+    public void registerWorld(int idx, World world) {
+        if (idx >= worlds.length) {
+            int cap = Math.max(idx + 1, worlds.length * 2);
+            worlds = Arrays.copyOf(worlds, cap);
+            sections = Arrays.copyOf(sections, cap);
+            pending = Arrays.copyOf(pending, cap);
+        }
+        worlds[idx] = world;
+        sections[idx] = new LongObjectHashMap<byte[]>();
+        pending[idx] = new LongHashSet(16);
+    }
+
+    public void unregisterWorld(int idx) {
+        worlds[idx] = null;
+        sections[idx] = null;
+        pending[idx] = null;
+        if (lastWorld == idx) {
+            lastWorld = -1;
+            lastSection = null;
+        }
+    }
+
+    /**
+     * Set the rules which define the bracing materials and distance.  All cached sections are
+     * discarded.
+     *
+     * @param rules the new rules
+     */
+    public void setRules(SlideRules rules) {
+        this.rules = rules;
+        this.distance = rules.getBracingDistance();
+        for (int i = 0; i < sections.length; i++) {
+            if (sections[i] != null) {
+                sections[i].clear();
+                pending[i].clear();
+            }
+        }
+        lastWorld = -1;
+    }
+
+    /**
+     * Check if there is a bracing block within the bracing distance of the given block, in any
+     * direction.
+     *
+     * @param idx the world index
+     * @param x   block X
+     * @param y   block Y
+     * @param z   block Z
+     * @return true if the block is braced
+     */
+    public boolean isBraced(int idx, int x, int y, int z) {
+        if (distance <= 0 || y < 0 || y >= worlds[idx].getMaxHeight()) {
+            return false;
+        }
+        long key = BlockPos.pack(x >> 4, y >> 4, z >> 4);
+        byte[] section;
+        if (idx == lastWorld && key == lastKey) {
+            section = lastSection;
+        } else {
+            section = getSections(idx).get(key);
+            if (section == null) {
+                section = build(idx, x >> 4, y >> 4, z >> 4);
+                getSections(idx).put(key, section);
+            }
+            lastWorld = idx;
+            lastKey = key;
+            lastSection = section;
+        }
+        return section[((y & 0xF) << 8) | ((z & 0xF) << 4) | (x & 0xF)] <= distance;
+    }
+
+    /**
+     * Note that a bracing block has been placed or removed at the given position.  Affected
+     * sections are brought up to date by the next call to {@link #flush()}, by which time the
+     * change must have been made in the world.
+     *
+     * @param idx the world index
+     * @param pos the packed block position
+     */
+    public void markChanged(int idx, long pos) {
+        if (distance > 0 && !sections[idx].isEmpty()) {
+            pending[idx].add(pos);
+        }
+    }
+
+    /**
+     * Bring the field up to date with all positions marked since the last flush.
+     */
+    public void flush() {
+        for (int idx = 0; idx < pending.length; idx++) {
+            LongHashSet p = pending[idx];
+            if (p == null || p.isEmpty()) {
+                continue;
+            }
+            boolean recompute = p.size() <= MAX_PENDING_UPDATES;
+            for (long pos : p.rawKeys()) {
+                if (pos == Long.MIN_VALUE) {
+                    continue;
+                }
+                if (recompute) {
+                    update(idx, BlockPos.getX(pos), BlockPos.getY(pos), BlockPos.getZ(pos));
+                } else {
+                    invalidate(idx, BlockPos.getX(pos), BlockPos.getY(pos), BlockPos.getZ(pos));
+                }
+            }
+            p.clear();
+        }
+    }
+
+    /**
+     * A chunk has been loaded; sections in nearby chunks were built without seeing its blocks,
+     * so discard them.
+     *
+     * @param idx    the world index
+     * @param chunkX chunk X
+     * @param chunkZ chunk Z
+     */
+    public void chunkLoaded(int idx, int chunkX, int chunkZ) {
+        if (getSections(idx).isEmpty()) {
+            return;
+        }
+        int r = (distance + 15) >> 4;
+        for (int cx = chunkX - r; cx <= chunkX + r; cx++) {
+            for (int cz = chunkZ - r; cz <= chunkZ + r; cz++) {
+                removeChunk(idx, cx, cz);
+            }
+        }
+    }
+
+    public void chunkUnloaded(int idx, int chunkX, int chunkZ) {
+        if (!getSections(idx).isEmpty()) {
+            removeChunk(idx, chunkX, chunkZ);
+        }
+    }
+
+    private void removeChunk(int idx, int chunkX, int chunkZ) {
+        LongObjectHashMap<byte[]> s = getSections(idx);
+        int nSections = worlds[idx].getMaxHeight() >> 4;
+        for (int sy = 0; sy < nSections; sy++) {
+            s.remove(BlockPos.pack(chunkX, sy, chunkZ));
+        }
+        lastWorld = -1;
+    }
+
+    private void invalidate(int idx, int x, int y, int z) {
+        LongObjectHashMap<byte[]> s = getSections(idx);
+        int d = distance;
+        for (int cx = (x - d) >> 4; cx <= (x + d) >> 4; cx++) {
+            for (int cz = (z - d) >> 4; cz <= (z + d) >> 4; cz++) {
+                for (int sy = Math.max(0, y - d) >> 4; sy <= (y + d) >> 4; sy++) {
+                    s.remove(BlockPos.pack(cx, sy, cz));
+                }
+            }
+        }
+        lastWorld = -1;
+    }
+
+    private void update(int idx, int x, int y, int z) {
+        // any block within d of the change has its nearest bracing block (if in range) within 2d of it
+        int d = distance;
+        int n = 4 * d + 1;
+        World world = worlds[idx];
+        compute(world, x - 2 * d, y - 2 * d, z - 2 * d, n);
+        LongObjectHashMap<byte[]> s = getSections(idx);
+        int maxY = world.getMaxHeight();
+        for (int qy = Math.max(0, y - d); qy <= Math.min(maxY - 1, y + d); qy++) {
+            for (int qz = z - d; qz <= z + d; qz++) {
+                for (int qx = x - d; qx <= x + d; qx++) {
+                    byte[] section = s.get(BlockPos.pack(qx >> 4, qy >> 4, qz >> 4));
+                    if (section != null) {
+                        section[((qy & 0xF) << 8) | ((qz & 0xF) << 4) | (qx & 0xF)] =
+                                region[((qy - y + 2 * d) * n + (qz - z + 2 * d)) * n + (qx - x + 2 * d)];
+                    }
+                }
+            }
+        }
+    }
+
+    private byte[] build(int idx, int chunkX, int sectionY, int chunkZ) {
+        int d = distance;
+        int n = 16 + 2 * d;
+        compute(worlds[idx], (chunkX << 4) - d, (sectionY << 4) - d, (chunkZ << 4) - d, n);
+        byte[] section = new byte[4096];
+        int i = 0;
+        for (int y = 0; y < 16; y++) {
+            for (int z = 0; z < 16; z++) {
+                for (int x = 0; x < 16; x++) {
+                    section[i++] = region[((y + d) * n + (z + d)) * n + (x + d)];
+                }
+            }
+        }
+        return section;
+    }
+
+    /**
+     * Compute the capped Chebyshev distance to the nearest bracing block for every block in the
+     * cube of side n with its minimum corner at (ox, oy, oz), leaving the result in the region
+     * buffer.  Blocks in unloaded chunks are treated as non-bracing.
+     */
+    private void compute(World world, int ox, int oy, int oz, int n) {
+        int cap = distance + 1;
+        if (region.length < n * n * n) {
+            region = new byte[n * n * n];
+            line = new byte[n];
+        }
+        int maxY = world.getMaxHeight();
+        for (int lz = 0; lz < n; lz++) {
+            for (int lx = 0; lx < n; lx++) {
+                int x = ox + lx, z = oz + lz;
+                boolean loaded = world.isChunkLoaded(x >> 4, z >> 4);
+                for (int ly = 0; ly < n; ly++) {
+                    int y = oy + ly;
+                    boolean bracing = loaded && y >= 0 && y < maxY && rules.isBracingMaterial(world.getBlockTypeIdAt(x, y, z));
+                    region[(ly * n + lz) * n + lx] = (byte) (bracing ? 0 : cap);
+                }
+            }
+        }
+        // the Chebyshev distance transform is separable: one pass along each axis in turn
+        for (int a = 0; a < n; a++) {
+            for (int b = 0; b < n; b++) {
+                pass((a * n + b) * n, 1, n);   // X
+            }
+        }
+        for (int a = 0; a < n; a++) {
+            for (int b = 0; b < n; b++) {
+                pass(a * n * n + b, n, n);     // Z
+            }
+        }
+        for (int a = 0; a < n; a++) {
+            for (int b = 0; b < n; b++) {
+                pass(a * n + b, n * n, n);     // Y
+            }
+        }
+    }
+
+    private void pass(int start, int stride, int len) {
+        for (int i = 0; i < len; i++) {
+            line[i] = region[start + i * stride];
+        }
+        for (int i = 0; i < len; i++) {
+            int best = line[i];
+            for (int k = 1; k < best; k++) {
+                if (i - k >= 0 && Math.max(k, line[i - k]) < best) {
+                    best = Math.max(k, line[i - k]);
+                }
+                if (i + k < len && Math.max(k, line[i + k]) < best) {
+                    best = Math.max(k, line[i + k]);
+                }
+            }
+            region[start + i * stride] = (byte) best;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private LongObjectHashMap<byte[]> getSections(int idx) {
+        return (LongObjectHashMap<byte[]>) sections[idx];
+    }
+}
@@ -0,0 +1,300 @@
+package me.pv5mc.landslide;
+
+/*
+This file is part of Landslide
+
+Landslide is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Landslide is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Landslide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import org.bukkit.configuration.Configuration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable, pre-parsed copy of the plugin's global (not per-world) settings.  A new snapshot
+ * is built whenever the configuration is loaded or changed, and published in one go by
+ * {@link LandslidePlugin#getSnapshot()}; code on the hot paths, and any worker thread, reads
+ * settings from the current snapshot instead of looking them up in the plugin configuration.
+ */
+public final class ConfigSnapshot {
+    private final int debugLevel;
+    private final boolean colouredConsole;
+    private final int maxSlidesPerTick;
+    private final int maxSlidesTotal;
+    private final boolean adaptiveBudgetEnabled;
+    private final double adaptiveBudgetTargetMspt;
+    private final double adaptiveBudgetMinMs;
+    private final double adaptiveBudgetMaxMs;
+    private final boolean deferredChecksEnabled;
+    private final double deferredChecksMaxMs;
+    private final boolean asyncEvaluation;
+    private final boolean worldGuardEnabled;
+    private final String worldGuardFlag;
+    private final int worldGuardCacheTtl;
+    private final List<String> bracingMaterials;
+    private final int bracingDistance;
+    private final boolean fullBracingScan;
+    private final boolean stickyPistonsRetracted;
+    private final boolean stickyPistonsExtended;
+    private final boolean nonVanilla;
+    private final int bounceChance;
+    private final int maxBounces;
+    private final boolean bouncePaths;
+    private final boolean dropSlidyFloaters;
+    private final boolean dropNonSlidyFloaters;
+    private final double explosionForceMult;
+    private final int explosionYieldChance;
+    private final boolean explosionPrimeTNT;
+    private final int explosionMaxFlings;
+    private final int explosionCoalesceTicks;
+    private final double explosionCoalesceRadius;
+    private final boolean explosionRubbleSolver;
+    private final int explosionVisibleFlings;
+    private final double explosionVisibleRange;
+    private final boolean fancyCreeperExplosions;
+    private final boolean fancyTNTExplosions;
+    private final boolean fancyEnderDragonExplosions;
+    private final boolean fancyOtherExplosions;
+    private final int snowCheckInterval;
+    private final boolean snowMeltAway;
+    private final boolean snowSmoothing;
+    private final int snowMeltLightLevel;
+    private final double snowMaxMs;
+    private final int snowSimulationRadius;
+
+    public ConfigSnapshot(Configuration conf) {
+        debugLevel = conf.getInt("debug_level");
+        colouredConsole = conf.getBoolean("coloured_console");
+        maxSlidesPerTick = conf.getInt("max_slides_per_tick", 20);
+        maxSlidesTotal = conf.getInt("max_slides_total", 200);
+        adaptiveBudgetEnabled = conf.getBoolean("adaptive_budget.enabled");
+        adaptiveBudgetTargetMspt = conf.getDouble("adaptive_budget.target_mspt", 52.0);
+        adaptiveBudgetMinMs = conf.getDouble("adaptive_budget.min_ms", 1.0);
+        adaptiveBudgetMaxMs = conf.getDouble("adaptive_budget.max_ms", 15.0);
+        deferredChecksEnabled = conf.getBoolean("deferred_checks.enabled");
+        deferredChecksMaxMs = conf.getDouble("deferred_checks.max_ms", 5.0);
+        asyncEvaluation = conf.getBoolean("async_evaluation");
+        worldGuardEnabled = conf.getBoolean("worldguard.enabled");
+        worldGuardFlag = conf.getString("worldguard.use_flag");
+        worldGuardCacheTtl = conf.getInt("worldguard.cache_ttl", 10);
+        bracingMaterials = Collections.unmodifiableList(new ArrayList<String>(conf.getStringList("bracing_materials")));
+        bracingDistance = conf.getInt("bracing_distance");
+        fullBracingScan = conf.getBoolean("full_bracing_scan");
+        stickyPistonsRetracted = conf.getBoolean("sticky_pistons.retracted");
+        stickyPistonsExtended = conf.getBoolean("sticky_pistons.extended");
+        nonVanilla = conf.getBoolean("non_vanilla");
+        bounceChance = conf.getInt("bounce_chance");
+        maxBounces = conf.getInt("max_bounces");
+        bouncePaths = conf.getBoolean("bounce_paths", true);
+        dropSlidyFloaters = conf.getBoolean("drop_slidy_floaters");
+        dropNonSlidyFloaters = conf.getBoolean("drop_nonslidy_floaters");
+        explosionForceMult = conf.getDouble("explosions.force_mult", 1.0);
+        explosionYieldChance = conf.getInt("explosions.yield_chance", 50);
+        explosionPrimeTNT = conf.getBoolean("explosions.prime_tnt", true);
+        explosionMaxFlings = conf.getInt("explosions.max_flings", 100);
+        explosionCoalesceTicks = conf.getInt("explosions.coalesce_ticks", 1);
+        explosionCoalesceRadius = conf.getDouble("explosions.coalesce_radius", 8.0);
+        explosionRubbleSolver = conf.getBoolean("explosions.rubble_solver", false);
+        explosionVisibleFlings = conf.getInt("explosions.visible_flings", 8);
+        explosionVisibleRange = conf.getDouble("explosions.visible_range", 32.0);
+        fancyCreeperExplosions = conf.getBoolean("fancy_explosions.creeper");
+        fancyTNTExplosions = conf.getBoolean("fancy_explosions.tnt");
+        fancyEnderDragonExplosions = conf.getBoolean("fancy_explosions.enderdragon");
+        fancyOtherExplosions = conf.getBoolean("fancy_explosions.other");
+        snowCheckInterval = conf.getInt("snow.check_interval");
+        snowMeltAway = conf.getBoolean("snow.melt_away");
+        snowSmoothing = conf.getBoolean("snow.smoothing");
+        snowMeltLightLevel = conf.getInt("snow.melt_light_level");
+        snowMaxMs = conf.getDouble("snow.max_ms", 2.0);
+        snowSimulationRadius = conf.getInt("snow.simulation_radius", 0);
+    }
+
+    public int getDebugLevel() {
+        return debugLevel;
+    }
+
+    public boolean isColouredConsole() {
+        return colouredConsole;
+    }
+
+    public int getMaxSlidesPerTick() {
+        return maxSlidesPerTick;
+    }
+
+    public int getMaxSlidesTotal() {
+        return maxSlidesTotal;
+    }
+
+    public boolean isAdaptiveBudgetEnabled() {
+        return adaptiveBudgetEnabled;
+    }
+
+    public double getAdaptiveBudgetTargetMspt() {
+        return adaptiveBudgetTargetMspt;
+    }
+
+    public double getAdaptiveBudgetMinMs() {
+        return adaptiveBudgetMinMs;
+    }
+
+    public double getAdaptiveBudgetMaxMs() {
+        return adaptiveBudgetMaxMs;
+    }
+
+    public boolean isDeferredChecksEnabled() {
+        return deferredChecksEnabled;
+    }
+
+    public double getDeferredChecksMaxMs() {
+        return deferredChecksMaxMs;
+    }
+
+    public boolean isAsyncEvaluation() {
+        return asyncEvaluation;
+    }
+
+    public boolean isWorldGuardEnabled() {
+        return worldGuardEnabled;
+    }
+
+    public String getWorldGuardFlag() {
+        return worldGuardFlag;
+    }
+
+    public int getWorldGuardCacheTtl() {
+        return worldGuardCacheTtl;
+    }
+
+    public List<String> getBracingMaterials() {
+        return bracingMaterials;
+    }
+
+    public int getBracingDistance() {
+        return bracingDistance;
+    }
+
+    public boolean isFullBracingScan() {
+        return fullBracingScan;
+    }
+
+    public boolean isStickyPistonsRetracted() {
+        return stickyPistonsRetracted;
+    }
+
+    public boolean isStickyPistonsExtended() {
+        return stickyPistonsExtended;
+    }
+
+    public boolean isNonVanilla() {
+        return nonVanilla;
+    }
+
+    public int getBounceChance() {
+        return bounceChance;
+    }
+
+    public int getMaxBounces() {
+        return maxBounces;
+    }
+
+    public boolean isBouncePaths() {
+        return bouncePaths;
+    }
+
+    public boolean isDropSlidyFloaters() {
+        return dropSlidyFloaters;
+    }
+
+    public boolean isDropNonSlidyFloaters() {
+        return dropNonSlidyFloaters;
+    }
+
+    public double getExplosionForceMult() {
+        return explosionForceMult;
+    }
+
+    public int getExplosionYieldChance() {
+        return explosionYieldChance;
+    }
+
+    public int getExplosionMaxFlings() {
+        return explosionMaxFlings;
+    }
+
+    public int getExplosionCoalesceTicks() {
+        return explosionCoalesceTicks;
+    }
+
+    public double getExplosionCoalesceRadius() {
+        return explosionCoalesceRadius;
+    }
+
+    public boolean isExplosionRubbleSolver() {
+        return explosionRubbleSolver;
+    }
+
+    public int getExplosionVisibleFlings() {
+        return explosionVisibleFlings;
+    }
+
+    public double getExplosionVisibleRange() {
+        return explosionVisibleRange;
+    }
+
+    public boolean isExplosionPrimeTNT() {
+        return explosionPrimeTNT;
+    }
+
+    public boolean isFancyCreeperExplosions() {
+        return fancyCreeperExplosions;
+    }
+
+    public boolean isFancyTNTExplosions() {
+        return fancyTNTExplosions;
+    }
+
+    public boolean isFancyEnderDragonExplosions() {
+        return fancyEnderDragonExplosions;
+    }
+
+    public boolean isFancyOtherExplosions() {
+        return fancyOtherExplosions;
+    }
+
+    public int getSnowCheckInterval() {
+        return snowCheckInterval;
+    }
+
+    public boolean isSnowMeltAway() {
+        return snowMeltAway;
+    }
+
+    public boolean isSnowSmoothing() {
+        return snowSmoothing;
+    }
+
+    public int getSnowMeltLightLevel() {
+        return snowMeltLightLevel;
+    }
+
+    public double getSnowMaxMs() {
+        return snowMaxMs;
+    }
+
+    public int getSnowSimulationRadius() {
+        return snowSimulationRadius;
+    }
+}
@@ -0,0 +1,175 @@
+package me.pv5mc.landslide;
+
+/*
+This file is part of Landslide
+
+Landslide is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Landslide is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Landslide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import org.bukkit.World;
+import org.bukkit.block.Block;
+
+import me.pv5mc.dhutils.Debugger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Optional deferred mode for slide checks: rather than checking a block as soon as an event
+ * touches it, event handlers just mark the block's position as dirty.  Once per tick, the dirty
+ * positions are checked in a single sweep in chunk order, within a time budget; anything left
+ * over is carried over to the next tick.  Each block is checked at most once per sweep however
+ * many events touched it.
+ * <p>
+ * Each world keeps a queue of positions sorted into chunk order.  Positions marked while a sweep
+ * is under way are collected separately, and only sorted once the queue has been worked through,
+ * so a persistent backlog can't starve any part of the world, and nothing is sorted twice.
+ * Sweeps carry on after the mode has been switched off, until the backlog has been worked off.
+ */
+public class DeferredSlideChecks {
+    private static final int TIME_CHECK_INTERVAL = 16;
+    private static final long NANOS_PER_MS = 1000000L;
+
+    private final LandslidePlugin plugin;
+    private final List<World> worlds = new ArrayList<World>();
+    private final List<WorldQueue> queues = new ArrayList<WorldQueue>();
+    private int firstWorld;
+
+    public DeferredSlideChecks(LandslidePlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    public boolean isEnabled() {
+        return plugin.getSnapshot().isDeferredChecksEnabled();
+    }
+
+    /**
+     * Mark a block to be checked for sliding in the next sweep.
+     *
+     * @param block the block
+     */
+    public void mark(Block block) {
+        getQueue(block.getWorld()).mark(BlockPos.pack(block));
+    }
+
+    /**
+     * Discard any pending checks for a world which is being unloaded.
+     *
+     * @param world the world
+     */
+    public void worldUnloaded(World world) {
+        for (int i = 0; i < worlds.size(); i++) {
+            if (worlds.get(i) == world) {
+                worlds.remove(i);
+                queues.remove(i);
+                return;
+            }
+        }
+    }
+
+    public int getPending() {
+        int n = 0;
+        for (WorldQueue queue : queues) {
+            n += queue.pending.size();
+        }
+        return n;
+    }
+
+    /**
+     * Check dirty blocks until there are none left or the time budget runs out.  Called once per
+     * tick, whether or not the mode is enabled.
+     */
+    public void process() {
+        if (worlds.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        long budgetNanos = (long) (plugin.getSnapshot().getDeferredChecksMaxMs() * NANOS_PER_MS);
+        int checked = 0;
+        int nWorlds = worlds.size();
+        // rotate the starting world so one busy world can't hog the budget every tick
+        firstWorld = (firstWorld + 1) % nWorlds;
+        for (int i = 0; i < nWorlds; i++) {
+            int w = (firstWorld + i) % nWorlds;
+            World world = worlds.get(w);
+            WorldQueue queue = queues.get(w);
+            while (queue.hasNext()) {
+                long pos = queue.next();
+                int x = BlockPos.getX(pos), z = BlockPos.getZ(pos);
+                if (world.isChunkLoaded(x >> 4, z >> 4)) {
+                    plugin.getEventListener().checkForSlide(world.getBlockAt(x, BlockPos.getY(pos), z));
+                }
+                if (++checked % TIME_CHECK_INTERVAL == 0 && System.nanoTime() - start >= budgetNanos) {
+                    Debugger.getInstance().debug(2, "deferred checks: " + checked + " checked, carrying over " + getPending());
+                    return;
+                }
+            }
+        }
+    }
+
+    private WorldQueue getQueue(World world) {
+        for (int i = 0; i < worlds.size(); i++) {
+            if (worlds.get(i) == world) {
+                return queues.get(i);
+            }
+        }
+        worlds.add(world);
+        WorldQueue queue = new WorldQueue();
+        queues.add(queue);
+        return queue;
+    }
+
+    /**
+     * One world's dirty positions: the current sweep, in chunk order, and the positions marked
+     * since it was started.
+     */
+    private static class WorldQueue {
+        // every position waiting to be checked, whether in the sweep or not
+        private final LongHashSet pending = new LongHashSet(256);
+        private long[] sweep = new long[256];
+        private int head, tail;
+        private long[] fresh = new long[256];
+        private int nFresh;
+
+        void mark(long pos) {
+            if (pending.add(pos)) {
+                if (nFresh == fresh.length) {
+                    fresh = Arrays.copyOf(fresh, nFresh * 2);
+                }
+                fresh[nFresh++] = BlockPos.toChunkOrder(pos);
+            }
+        }
+
+        boolean hasNext() {
+            if (head == tail && nFresh > 0) {
+                // start a new sweep with everything marked during the last one
+                long[] t = sweep;
+                sweep = fresh;
+                fresh = t;
+                Arrays.sort(sweep, 0, nFresh);
+                head = 0;
+                tail = nFresh;
+                nFresh = 0;
+            }
+            return head < tail;
+        }
+
+        long next() {
+            long pos = BlockPos.fromChunkOrder(sweep[head++]);
+            pending.remove(pos);
+            return pos;
+        }
+    }
+}
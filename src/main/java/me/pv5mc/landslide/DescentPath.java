@@ -0,0 +1,267 @@
+package me.pv5mc.landslide;
+
+/*
+This file is part of Landslide
+
+Landslide is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Landslide is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Landslide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.FallingBlock;
+import org.bukkit.util.Vector;
+
+import java.util.Arrays;
+
+/**
+ * The whole route a bouncing falling block will take down a slope, worked out in advance: a list
+ * of block positions joined by straight horizontal or vertical segments, where each horizontal
+ * segment is one hop off a landing point.
+ * <p>
+ * A single falling block entity is steered along the route, one step per tick, instead of a new
+ * entity being spawned (and a landing event handled) for every hop.  Once the entity reaches the
+ * last point it is released to land there under vanilla physics.  If the route becomes blocked
+ * along the way, steering stops and the entity carries on as an ordinary falling block.
+ * <p>
+ * Each hop holds a slide quota reservation in its chunk from when the path is planned until the
+ * entity reaches the end of the hop, or the path is abandoned.
+ */
+public class DescentPath {
+    public static final int MAX_HOPS = 32;
+
+    public static final int MOVING = 0;
+    public static final int ARRIVED = 1;
+    public static final int BLOCKED = 2;
+
+    private static final double HOP_SPEED = 0.25;
+    private static final double GRAVITY = 0.04;
+    private static final double MAX_FALL_SPEED = 1.0;
+    // half the width of a falling block's bounding box
+    private static final double HALF_WIDTH = 0.49;
+    // vanilla kills falling blocks which have been in the air for 600 ticks; leave a margin
+    private static final int MAX_TICKS = 400;
+
+    private long[] points = new long[16];
+    private boolean[] landings = new boolean[16];
+    private int nPoints;
+    private int hops;
+    private long[] hopChunks = new long[4];
+    private int hopsReleased;
+    private int worldIdx;
+    private int estimatedTicks;
+
+    private FallingBlock entity;
+    private int slot;
+    private int seg;
+    private int landingsPassed;
+    private double px, py, pz;
+    private double fallSpeed;
+    private final Location scratch = new Location(null, 0, 0, 0);
+
+    void addPoint(long pos, boolean landing) {
+        if (nPoints > 0 && points[nPoints - 1] == pos) {
+            landings[nPoints - 1] |= landing;
+            return;
+        }
+        if (nPoints > 0) {
+            long prev = points[nPoints - 1];
+            int drop = BlockPos.getY(prev) - BlockPos.getY(pos);
+            // a hop, or a fall under (roughly) gravity, capped at the maximum fall speed
+            estimatedTicks += drop == 0 ? (int) Math.ceil(1.0 / HOP_SPEED) : (int) Math.ceil(Math.sqrt(drop / (GRAVITY / 2)));
+        }
+        if (nPoints == points.length) {
+            points = Arrays.copyOf(points, nPoints * 2);
+            landings = Arrays.copyOf(landings, nPoints * 2);
+        }
+        points[nPoints] = pos;
+        landings[nPoints] = landing;
+        nPoints++;
+    }
+
+    /**
+     * Add a hop, whose quota reservation has already been taken.
+     *
+     * @param chunkKey the key of the chunk the reservation was taken in
+     */
+    void addHop(long chunkKey) {
+        if (hops == hopChunks.length) {
+            hopChunks = Arrays.copyOf(hopChunks, hops * 2);
+        }
+        hopChunks[hops++] = chunkKey;
+    }
+
+    /**
+     * @return the number of hops whose quota reservations have not yet been released
+     */
+    public int getHopsHeld() {
+        return hops - hopsReleased;
+    }
+
+    /**
+     * Mark the oldest held reservation as released.
+     *
+     * @return the key of the chunk the reservation was taken in
+     */
+    long releaseHop() {
+        return hopChunks[hopsReleased++];
+    }
+
+    public int getWorldIndex() {
+        return worldIdx;
+    }
+
+    void setWorldIndex(int worldIdx) {
+        this.worldIdx = worldIdx;
+    }
+
+    /**
+     * @return the number of times the block bounces along this path
+     */
+    public int getHops() {
+        return hops;
+    }
+
+    /**
+     * @return true if the path is already as long as a falling block could be expected to follow
+     */
+    public boolean isFull() {
+        return hops >= MAX_HOPS || estimatedTicks >= MAX_TICKS;
+    }
+
+    public int size() {
+        return nPoints;
+    }
+
+    public long getPoint(int i) {
+        return points[i];
+    }
+
+    public long getEnd() {
+        return points[nPoints - 1];
+    }
+
+    public FallingBlock getEntity() {
+        return entity;
+    }
+
+    /**
+     * @return the entity's slot in the {@link FallingBlockRegistry}
+     */
+    public int getSlot() {
+        return slot;
+    }
+
+    /**
+     * @return the number of landing points the entity has passed so far
+     */
+    public int getLandingsPassed() {
+        return landingsPassed;
+    }
+
+    /**
+     * @return the number of hops the entity has finished, that is, the landing points it has
+     *         reached after the first
+     */
+    public int getHopsCompleted() {
+        return Math.max(0, landingsPassed + (landings[0] ? 1 : 0) - 1);
+    }
+
+    /**
+     * @return the last point the entity has been carried to
+     */
+    public long getPosition() {
+        return points[seg];
+    }
+
+    /**
+     * @return true if the entity has been carried to the last point
+     */
+    public boolean isAtEnd() {
+        return seg >= nPoints - 1;
+    }
+
+    /**
+     * Start steering a falling block along the path.  The entity must have been spawned at the
+     * first point.
+     *
+     * @param fb   the falling block
+     * @param slot the entity's slot in the {@link FallingBlockRegistry}
+     */
+    void start(FallingBlock fb, int slot) {
+        this.entity = fb;
+        this.slot = slot;
+        long p = points[0];
+        px = BlockPos.getX(p) + 0.5;
+        py = BlockPos.getY(p) + 0.5;
+        pz = BlockPos.getZ(p) + 0.5;
+        seg = 0;
+        fallSpeed = 0.0;
+    }
+
+    /**
+     * Advance one tick along the path, and set the entity's velocity so that vanilla physics
+     * carries it to the new position during the coming entity tick.  Returns {@link #ARRIVED} on
+     * the first tick after the entity has been carried to the last point.
+     *
+     * @param world the entity's world
+     * @return {@link #MOVING}, {@link #ARRIVED} or {@link #BLOCKED}
+     */
+    int step(World world) {
+        if (seg >= nPoints - 1) {
+            return ARRIVED;
+        }
+        long from = points[seg], to = points[seg + 1];
+        boolean falling = BlockPos.getY(to) < BlockPos.getY(from);
+        double budget;
+        if (falling) {
+            fallSpeed = Math.min(fallSpeed + GRAVITY, MAX_FALL_SPEED);
+            budget = fallSpeed;
+        } else {
+            fallSpeed = 0.0;
+            budget = HOP_SPEED;
+        }
+        int dx = Integer.signum(BlockPos.getX(to) - BlockPos.getX(from));
+        int dy = Integer.signum(BlockPos.getY(to) - BlockPos.getY(from));
+        int dz = Integer.signum(BlockPos.getZ(to) - BlockPos.getZ(from));
+        double tx = BlockPos.getX(to) + 0.5, ty = BlockPos.getY(to) + 0.5, tz = BlockPos.getZ(to) + 0.5;
+        double remaining = Math.abs(tx - px) + Math.abs(ty - py) + Math.abs(tz - pz);
+        if (remaining <= budget) {
+            px = tx;
+            py = ty;
+            pz = tz;
+            if (landings[++seg]) {
+                landingsPassed++;
+            }
+        } else {
+            px += dx * budget;
+            py += dy * budget;
+            pz += dz * budget;
+        }
+
+        // is the space the block is moving into still clear?
+        int lx = (int) Math.floor(px + dx * HALF_WIDTH);
+        int ly = (int) Math.floor(py + dy * HALF_WIDTH);
+        int lz = (int) Math.floor(pz + dz * HALF_WIDTH);
+        if (!world.isChunkLoaded(lx >> 4, lz >> 4) || MaterialFlags.isSolid(world.getBlockTypeIdAt(lx, ly, lz))) {
+            return BLOCKED;
+        }
+
+        entity.getLocation(scratch);
+        // vanilla applies gravity before moving the entity, so allow for that
+        entity.setVelocity(new Vector(px - scratch.getX(), py - scratch.getY() + GRAVITY, pz - scratch.getZ()));
+        scratch.setWorld(null);
+        return MOVING;
+    }
+}
@@ -2,7 +2,6 @@ package me.pv5mc.landslide;
 
 import org.bukkit.Location;
 import org.bukkit.Material;
-import org.bukkit.Sound;
 import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
@@ -10,21 +9,29 @@ import org.bukkit.entity.*;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockBreakEvent;
 import org.bukkit.event.block.BlockPhysicsEvent;
+import org.bukkit.event.block.BlockPistonExtendEvent;
+import org.bukkit.event.block.BlockPistonRetractEvent;
 import org.bukkit.event.block.BlockPlaceEvent;
 import org.bukkit.event.entity.EntityChangeBlockEvent;
 import org.bukkit.event.entity.EntityExplodeEvent;
 import org.bukkit.event.entity.ItemSpawnEvent;
 import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldSaveEvent;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
 import org.bukkit.event.player.PlayerItemHeldEvent;
 import org.bukkit.inventory.ItemStack;
-import org.bukkit.material.MaterialData;
 import org.bukkit.util.Vector;
 
 import me.pv5mc.dhutils.Debugger;
 import me.pv5mc.dhutils.MiscUtil;
 
-import java.util.Random;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Note that all listener methods run with EventPriority.HIGHEST, giving other plugins a chance
@@ -34,15 +41,17 @@ public class EventListener implements Listener {
 
     private final LandslidePlugin plugin;
 
-    // sounds to play at random when blocks land
-    private static final Sound[] landingSounds = new Sound[]{
-            Sound.STEP_GRAVEL,
-            Sound.STEP_SAND,
-            Sound.STEP_STONE,
-            Sound.DIG_GRASS,
-            Sound.DIG_GRAVEL,
-            Sound.DIG_SAND,
-    };
+    // landing sounds, played once per chunk section per tick
+    private final LandingEffects landingEffects = new LandingEffects();
+
+    // blocks already checked for sliding this tick, in response to a physics event
+    private final List<World> physicsWorlds = new ArrayList<World>();
+    private final List<LongHashSet> physicsSeen = new ArrayList<LongHashSet>();
+    private int nPhysicsWorlds;
+
+    // living entities which falling blocks might land on, indexed once per chunk per tick
+    private final LivingEntityIndex livingEntities = new LivingEntityIndex();
+    private final List<LivingEntity> victims = new ArrayList<LivingEntity>();
 
     public EventListener(LandslidePlugin plugin) {
         this.plugin = plugin;
@@ -53,18 +62,84 @@ public class EventListener implements Listener {
         if (!plugin.getPerWorldConfig().isEnabled(event.getBlock().getWorld())) {
             return;
         }
-        checkForSlide(event.getBlock());
+        plugin.getSlideManager().blockChanged(event.getBlock(), event.getBlock().getTypeId());
+        plugin.getSlideManager().blockChanged(event.getBlock(), event.getBlockReplacedState().getTypeId());
+        checkOrDefer(event.getBlock());
     }
 
-    @EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true)
-    public void onBlockLanded(EntityChangeBlockEvent event) {
-        if (!(event.getEntity() instanceof FallingBlock)) {
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockBreak(BlockBreakEvent event) {
+        if (!plugin.getPerWorldConfig().isEnabled(event.getBlock().getWorld())) {
             return;
         }
-        if (!plugin.getPerWorldConfig().isEnabled(event.getBlock().getWorld())) {
+        plugin.getSlideManager().blockChanged(event.getBlock(), event.getBlock().getTypeId());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPistonExtend(BlockPistonExtendEvent event) {
+        pistonMoved(event.getBlocks(), event.getDirection());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPistonRetract(BlockPistonRetractEvent event) {
+        // the event's direction isn't reliably the way the blocks move, so cover both ways
+        pistonMoved(event.getBlocks(), event.getDirection());
+        pistonMoved(event.getBlocks(), event.getDirection().getOppositeFace());
+    }
+
+    /**
+     * Tell the slide manager about blocks moved by a piston: each one leaves its old position
+     * and arrives in the next one along.
+     */
+    private void pistonMoved(List<Block> blocks, BlockFace direction) {
+        if (blocks.isEmpty() || !plugin.getPerWorldConfig().isEnabled(blocks.get(0).getWorld())) {
             return;
         }
+        for (Block b : blocks) {
+            plugin.getSlideManager().blockChanged(b, b.getTypeId());
+            plugin.getSlideManager().blockChanged(b.getRelative(direction), b.getTypeId());
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkLoad(ChunkLoadEvent event) {
+        plugin.getSlideManager().chunkLoaded(event.getChunk());
+        plugin.getSnowHandler().chunkLoaded(event.getChunk());
+    }
 
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onChunkUnload(ChunkUnloadEvent event) {
+        plugin.getSlideManager().chunkUnloaded(event.getChunk());
+        plugin.getSnowHandler().chunkUnloaded(event.getChunk());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldSave(WorldSaveEvent event) {
+        plugin.getSnowHandler().worldSaved(event.getWorld());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldLoad(WorldLoadEvent event) {
+        plugin.getPerWorldConfig().worldLoaded(event.getWorld());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        // release everything held for the world, so nothing leaks across world resets
+        WorldContext ctx = plugin.getPerWorldConfig().worldUnloaded(event.getWorld());
+        if (ctx != null) {
+            plugin.getSlideManager().worldUnloaded(ctx);
+            plugin.getSnowHandler().worldUnloaded(ctx);
+        }
+        plugin.getDeferredChecks().worldUnloaded(event.getWorld());
+        plugin.getExplosionProcessor().worldUnloaded(event.getWorld());
+    }
+
+    @EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true)
+    public void onBlockLanded(EntityChangeBlockEvent event) {
+        if (!(event.getEntity() instanceof FallingBlock)) {
+            return;
+        }
         Block block = event.getBlock();
         FallingBlock fb = (FallingBlock) event.getEntity();
 
@@ -72,10 +147,28 @@ public class EventListener implements Listener {
             // looks like a block starting to fall - we don't care about that here
             return;
         }
+        FallingBlockRegistry registry = plugin.getSlideManager().getFallingBlocks();
+        int slot = registry.find(fb.getEntityId());
+        if (slot < 0 && !MaterialFlags.hasGravity(fb.getMaterial().getId())) {
+            // neither ours nor vanilla sand/gravel; some other plugin's business
+            return;
+        }
+        // a bounce continues the same avalanche; a vanilla block landing starts a new one
+        int tag = 0;
+        boolean settled = false;
+        if (slot >= 0) {
+            tag = FallingBlockRegistry.tag(registry.getAvalancheOf(slot), registry.getBouncesOf(slot) + 1);
+            settled = registry.isSettled(slot);
+            registry.release(slot);
+        }
+        WorldContext ctx = plugin.getPerWorldConfig().getContext(event.getBlock().getWorld());
+        if (!ctx.isEnabled()) {
+            return;
+        }
         if (!block.getType().isBlock()) {
             // looks like a non-vanilla block (are we running MCPC+ maybe?)
             event.setCancelled(true);
-            if (plugin.getPerWorldConfig().getDropItems(block.getWorld())) {
+            if (ctx.getDropItems()) {
                 block.getWorld().dropItemNaturally(block.getLocation(), new ItemStack(fb.getMaterial(), 1, fb.getBlockData()));
             }
             return;
@@ -83,7 +176,7 @@ public class EventListener implements Listener {
         if (block.getType() == Material.AIR && block.getRelative(BlockFace.DOWN).getType() == Material.SNOW) {
             // trying to land on a thick snow layer - doesn't work well, so just drop an item
             event.setCancelled(true);
-            if (plugin.getPerWorldConfig().getDropItems(block.getWorld())) {
+            if (ctx.getDropItems()) {
                 block.getWorld().dropItemNaturally(block.getLocation(), new ItemStack(fb.getMaterial(), 1, fb.getBlockData()));
             }
             return;
@@ -93,38 +186,49 @@ public class EventListener implements Listener {
         }
 
         Debugger.getInstance().debug(2, "falling block landed! " + fb.getMaterial() + " -> " + block);
-        if (checkForSlide(block, event.getTo(), event.getData(), true, plugin.getPerWorldConfig().getFallingBlocksBounce(fb.getWorld()))) {
+        int maxBounces = plugin.getSnapshot().getMaxBounces();
+        boolean bounce = ctx.getFallingBlocksBounce() && (maxBounces == 0 || FallingBlockRegistry.getBounces(tag) <= maxBounces);
+        // a block which followed a precomputed descent path has already had its bounces
+        if (!settled && checkForSlide(block, event.getTo(), event.getData(), true, bounce, tag)) {
             // the block continues to slide - don't waste time forming a true block
             // (checkForSlide() will have already created a new FallingBlock entity)
             event.setCancelled(true);
         } else {
             // the block has landed
-            if (plugin.getRandom().nextInt(100) < plugin.getPerWorldConfig().getExplodeEffectChance(fb.getWorld())) {
-                if (fb.getMaterial() == Material.SNOW || fb.getMaterial() == Material.SNOW_BLOCK) {
-                    // snow falling is nice and quiet!
-                    fb.getWorld().playSound(fb.getLocation(), Sound.STEP_SNOW, 2.0f, 0.5f);
-                } else if (SlideManager.isSolid(fb.getMaterial())) {
-                    fb.getWorld().playSound(fb.getLocation(), landingSounds[plugin.getRandom().nextInt(landingSounds.length)], 2.0f, 0.5f);
+            plugin.getSlideManager().blockChanged(block, event.getTo().getId());
+            if (plugin.getRandom().nextInt(100) < ctx.getExplodeEffectChance()) {
+                if (fb.getMaterial() == Material.SNOW || fb.getMaterial() == Material.SNOW_BLOCK || SlideManager.isSolid(fb.getMaterial())) {
+                    Location loc = fb.getLocation();
+                    landingEffects.add(ctx, loc.getX(), loc.getY(), loc.getZ(), fb.getMaterial() == Material.SNOW || fb.getMaterial() == Material.SNOW_BLOCK);
                 }
             }
         }
 
+        landingImpact(ctx, fb, block);
+    }
+
+    /**
+     * Deal with a falling block coming down at the given block, whether it really lands there or
+     * just bounces off it on its way along a descent path.
+     *
+     * @param ctx   the world's context
+     * @param fb    the falling block
+     * @param block the block the falling block has come down in
+     */
+    void landingImpact(WorldContext ctx, FallingBlock fb, Block block) {
         // See if the block we landed on can be dislodged; but only "heavy" (aka solid) falling blocks will dislodge blocks they land on
         if (SlideManager.isSolid(fb.getMaterial())) {
-            checkForSlide(block.getRelative(BlockFace.DOWN));
+            checkOrDefer(block.getRelative(BlockFace.DOWN));
         }
 
         // anything living standing in the way?
-        int dmg = plugin.getPerWorldConfig().getFallingBlockDamage(fb.getWorld());
+        int dmg = ctx.getFallingBlockDamage();
         if (dmg > 0 && SlideManager.isSolid(fb.getMaterial())) {
-            Location loc = block.getLocation();
-            for (Entity e : loc.getChunk().getEntities()) {
-                if (e instanceof LivingEntity) {
-                    e.getLocation(loc);
-                    if (loc.getBlockX() == block.getX() && loc.getBlockY() == block.getY() && loc.getBlockZ() == block.getZ()) {
-                        ((LivingEntity) e).damage(dmg);
-                    }
+            if (livingEntities.getEntitiesAt(ctx, block.getX(), block.getY(), block.getZ(), victims) > 0) {
+                for (LivingEntity e : victims) {
+                    e.damage(dmg);
                 }
+                victims.clear();
             }
         }
     }
@@ -132,10 +236,10 @@ public class EventListener implements Listener {
     @EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true)
     public void vanillaBlockFalling(EntityChangeBlockEvent event) {
         Block block = event.getBlock();
-        if (block.getType().hasGravity() && event.getEntity() instanceof FallingBlock) {
+        if (MaterialFlags.hasGravity(block.getTypeId()) && event.getEntity() instanceof FallingBlock) {
             FallingBlock fb = (FallingBlock) event.getEntity();
-            if (block.getType() == fb.getMaterial()) {
-                int chanceToSlide = plugin.getPerWorldConfig().getSlideChance(block.getWorld(), new MaterialData(block.getType(), block.getData()));
+            if (block.getType() == fb.getMaterial() && !plugin.getSlideManager().getFallingBlocks().isOwned(fb.getEntityId())) {
+                int chanceToSlide = plugin.getPerWorldConfig().getSlideChance(block.getWorld(), block.getTypeId(), block.getData());
                 if (plugin.getRandom().nextInt(100) > chanceToSlide) {
                     event.setCancelled(true);
                 }
@@ -173,11 +277,57 @@ public class EventListener implements Listener {
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onBlockPhysics(BlockPhysicsEvent event) {
-        if (!plugin.getPerWorldConfig().isEnabled(event.getBlock().getWorld())) {
+        Block block = event.getBlock();
+        if (!plugin.getPerWorldConfig().isSlideCandidate(block.getTypeId())) {
+            return;
+        }
+        if (!plugin.getPerWorldConfig().isEnabled(block.getWorld())) {
+            return;
+        }
+        BlockChangeBatch changes = plugin.getSlideManager().getBlockChanges();
+        if (changes.isApplying()) {
+            // caused by our own block changes; the block gets checked once the whole batch is written
+            changes.deferNeighbour(block);
             return;
         }
-        Debugger.getInstance().debug(2, "Block physics: " + event.getBlock());
-        checkForSlide(event.getBlock());
+        if (plugin.getDeferredChecks().isEnabled()) {
+            plugin.getDeferredChecks().mark(block);
+            return;
+        }
+        if (!getPhysicsSeen(block.getWorld()).add(BlockPos.pack(block))) {
+            // already looked at this block during this tick
+            return;
+        }
+        Debugger.getInstance().debug(2, "Block physics: " + block);
+        checkForSlide(block);
+    }
+
+    /**
+     * Called at the start of each tick.
+     */
+    public void tick() {
+        for (int i = 0; i < nPhysicsWorlds; i++) {
+            physicsSeen.get(i).clear();
+            physicsWorlds.set(i, null);
+        }
+        nPhysicsWorlds = 0;
+        livingEntities.clear();
+        landingEffects.flush(plugin.getRandom());
+    }
+
+    private LongHashSet getPhysicsSeen(World world) {
+        for (int i = 0; i < nPhysicsWorlds; i++) {
+            if (physicsWorlds.get(i) == world) {
+                return physicsSeen.get(i);
+            }
+        }
+        if (nPhysicsWorlds == physicsWorlds.size()) {
+            physicsWorlds.add(world);
+            physicsSeen.add(new LongHashSet(256));
+        } else {
+            physicsWorlds.set(nPhysicsWorlds, world);
+        }
+        return physicsSeen.get(nPhysicsWorlds++);
     }
 
     @EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true)
@@ -188,61 +338,7 @@ public class EventListener implements Listener {
 
         // we don't drop items; instead any affected blocks have a chance to become a (high-speed) falling block
         event.setCancelled(true);
-
-        Location centre = event.getLocation();
-
-        double distMax0 = 0.0;
-        for (Block b : event.blockList()) {
-            distMax0 = Math.max(distMax0, b.getLocation().distanceSquared(centre));
-        }
-
-        // work out a good direction to bias the block flinging - try to send them towards open air
-        Block centreBlock = centre.getBlock();
-        if (!SlideManager.isSolid(centreBlock.getType())) {
-            centreBlock = findAdjacentSolid(centreBlock);
-            centre = centreBlock.getLocation();
-        }
-        Random rnd = plugin.getRandom();
-        Vector dirModifier = new Vector(rnd.nextDouble() * 0.5, rnd.nextDouble() * 0.5, rnd.nextDouble() * 0.5);
-        for (BlockFace face : LandslidePlugin.allFaces) {
-            Block b1 = centreBlock.getRelative(face);
-            if (!SlideManager.isSolid(b1.getRelative(face).getType()) && SlideManager.isSolid(b1.getRelative(face.getOppositeFace()).getType())) {
-                dirModifier.add(new Vector(face.getModX(), face.getModY(), face.getModZ()));
-            }
-        }
-
-        final double distMax = Math.sqrt(distMax0);
-        final double forceMult = plugin.getConfig().getDouble("explosions.force_mult", 1.0);
-        final int yieldChance = plugin.getConfig().getInt("explosions.yield_chance", 50);
-        boolean primeTNT = plugin.getConfig().getBoolean("explosions.prime_tnt", true);
-
-        Debugger.getInstance().debug("explosion: cause = " + event.getEntity() + ", " + event.blockList().size() + " blocks affected, radius = " + distMax);
-        for (Block b : event.blockList()) {
-            if (!SlideManager.isSolid(b.getType())) {
-                // maybe some other plugin has already changed this block (e.g. CreeperHeal?)
-                continue;
-            }
-            if (b.getType() == Material.TNT && primeTNT) {
-                b.setType(Material.AIR);
-                Entity tnt = b.getWorld().spawn(b.getLocation(), TNTPrimed.class);
-                ((TNTPrimed) tnt).setFuseTicks(20);
-                continue;
-            }
-            if (rnd.nextInt(100) > yieldChance) {
-                b.setType(Material.AIR);
-                continue;
-            }
-            double xOff = b.getX() - centre.getBlockX();
-            double yOff = b.getY() - centre.getBlockY();
-            double zOff = b.getZ() - centre.getBlockZ();
-            if (xOff == 0 && yOff == 0 && zOff == 0) {
-                yOff = 0.1;  // can't have a zero vector here; it won't normalize properly
-            }
-            double dist = Math.sqrt(xOff * xOff + yOff * yOff + zOff * zOff);
-            double power = Math.abs(distMax - dist) / 3.0;
-            Vector vec = new Vector(xOff, yOff, zOff).normalize().multiply(forceMult * power);
-            plugin.getSlideManager().scheduleBlockFling(b, vec.clone(), dirModifier.clone());
-        }
+        plugin.getExplosionProcessor().process(event.getEntity(), event.getLocation(), event.blockList());
     }
 
     @EventHandler
@@ -302,74 +398,75 @@ public class EventListener implements Listener {
         player.setItemInHand(wand.toItemStack(player.getItemInHand().getAmount()));
     }
 
-    private Block findAdjacentSolid(Block b) {
-        for (BlockFace face : LandslidePlugin.allFaces) {
-            Block b1 = b.getRelative(face);
-            if (SlideManager.isSolid(b.getType())) {
-                return b1;
-            }
-        }
-        return b;
-    }
-
     private boolean explosionEventApplies(Entity e) {
-        if (e instanceof Creeper && plugin.getConfig().getBoolean("fancy_explosions.creeper")) {
+        ConfigSnapshot conf = plugin.getSnapshot();
+        if (e instanceof Creeper && conf.isFancyCreeperExplosions()) {
             return true;
-        } else if (e instanceof TNTPrimed && plugin.getConfig().getBoolean("fancy_explosions.tnt")) {
+        } else if (e instanceof TNTPrimed && conf.isFancyTNTExplosions()) {
             return true;
-        } else if (e instanceof EnderDragon && plugin.getConfig().getBoolean("fancy_explosions.enderdragon")) {
+        } else if (e instanceof EnderDragon && conf.isFancyEnderDragonExplosions()) {
             return true;
-        } else if (plugin.getConfig().getBoolean("fancy_explosions.other")) {
+        } else if (conf.isFancyOtherExplosions()) {
             return true;
         }
         return false;
     }
 
-    private boolean checkForSlide(Block block, Material mat, byte data, boolean immediate, boolean justLanded) {
+    private boolean checkForSlide(Block block, Material mat, byte data, boolean immediate, boolean justLanded, int tag) {
         World world = block.getWorld();
         Debugger.getInstance().debug(2, "check for slide: " + block + " immediate=" + immediate + " justLanded=" + justLanded);
 
-        MaterialData matData = new MaterialData(mat, data);
-        int slideChance = plugin.getPerWorldConfig().getSlideChance(world, matData);
-        int dropChance = plugin.getPerWorldConfig().getDropChance(world, matData);
-        int bounceChance = plugin.getConfig().getInt("bounce_chance");
+        WorldContext ctx = plugin.getPerWorldConfig().getContext(world);
+        int slideChance = ctx.getSlideChance(mat.getId(), data);
+        int dropChance = ctx.getDropChance(mat.getId(), data);
+        ConfigSnapshot conf = plugin.getSnapshot();
+        int bounceChance = conf.getBounceChance();
         if (justLanded && bounceChance <= plugin.getRandom().nextInt(100)) {
             return false;
         }
-        boolean orphan = plugin.isOrphan(block);
-        boolean weatherStopsSlide = plugin.getPerWorldConfig().getOnlyWhenRaining(world) && !world.hasStorm();
-
-        if ((slideChance > 0 || dropChance > 0) && orphan && plugin.getConfig().getBoolean("drop_slidy_floaters")) {
-            return plugin.getSlideManager().scheduleBlockSlide(block, BlockFace.DOWN, mat, data, true);
-        } else if (orphan && plugin.getConfig().getBoolean("drop_nonslidy_floaters")) {
-            return plugin.getSlideManager().scheduleBlockSlide(block, BlockFace.DOWN, mat, data, true);
+        BlockAccess nb = plugin.getSlideManager().loadNeighbourhood(block);
+        boolean orphan = plugin.getSlideManager().isOrphan(nb);
+        boolean weatherStopsSlide = ctx.getOnlyWhenRaining() && !world.hasStorm();
+
+        if ((slideChance > 0 || dropChance > 0) && orphan && conf.isDropSlidyFloaters()) {
+            return plugin.getSlideManager().scheduleBlockSlide(block, BlockFace.DOWN, mat, data, true, tag);
+        } else if (orphan && conf.isDropNonSlidyFloaters()) {
+            return plugin.getSlideManager().scheduleBlockSlide(block, BlockFace.DOWN, mat, data, true, tag);
         }
         if (slideChance > plugin.getRandom().nextInt(100) && !weatherStopsSlide || justLanded && slideChance > 0) {
             if (block.getType() == Material.SNOW) {
                 // special case; snow can slide off in layers, and the minimum thickness is configurable
-                if (block.getData() < plugin.getPerWorldConfig().getSnowSlideThickness(world) - 1) {
+                if (block.getData() < ctx.getSnowSlideThickness() - 1) {
                     return false;
                 }
             }
-            if (plugin.getPerWorldConfig().getOnlyWhenRaining(world) && !world.hasStorm()) {
+            if (weatherStopsSlide) {
                 return false;
             }
-            BlockFace face = plugin.getSlideManager().wouldSlide(block);
+            BlockFace face = plugin.getSlideManager().wouldSlide(block, nb);
             // sand/gravel/anvil dropping down will be handled by vanilla mechanics
-            if (face != null && (face != BlockFace.DOWN || !block.getType().hasGravity())) {
-                return plugin.getSlideManager().scheduleBlockSlide(block, face, mat, data, immediate);
+            if (face != null && (face != BlockFace.DOWN || !MaterialFlags.hasGravity(block.getTypeId()))) {
+                return plugin.getSlideManager().scheduleBlockSlide(block, face, mat, data, immediate, tag);
             }
         } else if (dropChance > plugin.getRandom().nextInt(100)) {
-            BlockFace face = plugin.getSlideManager().wouldSlide(block);
+            BlockFace face = plugin.getSlideManager().wouldSlide(block, nb);
             if (face == BlockFace.DOWN) {
-                return plugin.getSlideManager().scheduleBlockSlide(block, face, mat, data, immediate);
+                return plugin.getSlideManager().scheduleBlockSlide(block, face, mat, data, immediate, tag);
             }
         }
         return false;
     }
 
-    private boolean checkForSlide(Block block) {
-        return checkForSlide(block, block.getType(), block.getData(), false, false);
+    boolean checkForSlide(Block block) {
+        return checkForSlide(block, block.getType(), block.getData(), false, false, 0);
+    }
+
+    void checkOrDefer(Block block) {
+        if (plugin.getDeferredChecks().isEnabled()) {
+            plugin.getDeferredChecks().mark(block);
+        } else {
+            checkForSlide(block);
+        }
     }
 
 }
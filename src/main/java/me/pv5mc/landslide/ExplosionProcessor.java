@@ -0,0 +1,699 @@
+package me.pv5mc.landslide;
+
+/*
+This file is part of Landslide
+
+Landslide is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Landslide is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Landslide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import me.pv5mc.dhutils.Debugger;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.entity.TNTPrimed;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Turns the blocks destroyed by an explosion into flung falling blocks.
+ * <p>
+ * Explosions are processed at the end of the tick they happen in, at the earliest.  An explosion
+ * with no other explosion pending, or processed in the last explosions.coalesce_ticks ticks,
+ * within explosions.coalesce_radius of it in the same world is processed then, provided nothing
+ * else has exploded near it during the tick.  Otherwise it is held for up to
+ * explosions.coalesce_ticks ticks; explosions in the same world whose centres are within
+ * explosions.coalesce_radius of
+ * each other (directly, or via other explosions) are merged into a single blast field.  Each
+ * block caught by the merged blast is considered once, and gets one fling vector, the sum of the
+ * push from every explosion which reached it.  This stops chains of primed TNT from flinging the
+ * same ground over and over.
+ * <p>
+ * The direction and distance of every block offset from the centre of an explosion is looked up
+ * in a table, built once and grown to the largest radius seen, so no square roots or Vector
+ * objects are needed per block.  At most explosions.max_flings blocks are flung per merged blast;
+ * if more are eligible, a random sample is flung and the rest are dropped straight down as
+ * rubble, written through the slide manager's block change batch.
+ * <p>
+ * With explosions.rubble_solver on, only up to explosions.visible_flings blocks within
+ * explosions.visible_range of a player are flung as real entities.  For every other block, the
+ * path a falling block would take is worked out from its fling vector, using the closed form of
+ * vanilla falling block motion, and the block is placed where it would have landed.
+ */
+public class ExplosionProcessor {
+    // beyond this, offsets are worked out directly rather than looked up
+    private static final int MAX_TABLE_RADIUS = 12;
+    // vanilla falling block motion: each tick, gravity is applied, then the block moves, then drag
+    private static final double GRAVITY = 0.04;
+    private static final double DRAG = 0.98;
+    // the fixed point of the vertical velocity at the start of each tick
+    private static final double TERMINAL = -DRAG * GRAVITY / (1.0 - DRAG);
+    private static final int MAX_FLIGHT_TICKS = 200;
+
+    private final LandslidePlugin plugin;
+    private final List<Blast> pending = new ArrayList<Blast>();
+    private final List<Blast> cluster = new ArrayList<Blast>();
+    // explosions processed within the last coalesce_ticks ticks
+    private final List<Blast> recent = new ArrayList<Blast>();
+    private final List<Block> candidates = new ArrayList<Block>();
+    private final LongIntHashMap candidateIdx = new LongIntHashMap(256);
+    private final LongHashSet rubbleSet = new LongHashSet(64);
+    // positions of blocks scheduled to be flung, which will be gone by the time rubble lands
+    private final LongHashSet flung = new LongHashSet(64);
+    private final LongHashSet landed = new LongHashSet(64);
+    private long tickCount;
+    private int[] parent = new int[16];
+    private boolean[] due = new boolean[16];
+    private int tableRadius = -1;
+    private int tableSide;
+    // unit X, Y, Z and length of each offset vector
+    private float[] table = new float[0];
+    private int[] order = new int[64];
+    private long[] rubble = new long[64];
+    private int[] transforms = new int[64];
+    // resultant fling velocity X, Y, Z for each candidate
+    private double[] resultant = new double[192];
+    private final double[] unit = new double[4];
+
+    public ExplosionProcessor(LandslidePlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Queue an explosion for processing.  The caller is responsible for cancelling the explosion
+     * event; the blocks are left in place until the explosion is processed.
+     *
+     * @param cause  the entity which exploded
+     * @param centre where the explosion happened
+     * @param blocks the blocks destroyed by the explosion
+     */
+    public void process(Entity cause, Location centre, List<Block> blocks) {
+        Blast blast = new Blast(cause, centre, new ArrayList<Block>(blocks), tickCount);
+        ConfigSnapshot conf = plugin.getSnapshot();
+        double r2 = conf.getExplosionCoalesceRadius() * conf.getExplosionCoalesceRadius();
+        if (conf.getExplosionCoalesceTicks() == 0) {
+            cluster.add(blast);
+            processCluster();
+        } else {
+            // with nothing nearby to merge with, it needn't wait beyond the end of this tick; but
+            // it may yet turn out to be the first of a chain reaction
+            blast.isolated = !isNear(pending, blast, r2) && !isNear(recent, blast, r2);
+            pending.add(blast);
+        }
+    }
+
+    private static boolean isNear(List<Blast> blasts, Blast blast, double r2) {
+        for (int i = 0; i < blasts.size(); i++) {
+            Blast b = blasts.get(i);
+            if (b.world == blast.world) {
+                double dx = b.x - blast.x, dy = b.y - blast.y, dz = b.z - blast.z;
+                if (dx * dx + dy * dy + dz * dz <= r2) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Called once per tick: merge pending explosions into clusters, and process each cluster
+     * whose oldest explosion has waited long enough.
+     */
+    public void tick() {
+        tickCount++;
+        ConfigSnapshot conf = plugin.getSnapshot();
+        int window = conf.getExplosionCoalesceTicks();
+        for (int i = recent.size() - 1; i >= 0; i--) {
+            if (tickCount - recent.get(i).tick > window) {
+                recent.remove(i);
+            }
+        }
+        int n = pending.size();
+        if (n == 0) {
+            return;
+        }
+        double r2 = conf.getExplosionCoalesceRadius() * conf.getExplosionCoalesceRadius();
+
+        if (parent.length < n) {
+            parent = new int[Math.max(n, parent.length * 2)];
+            due = new boolean[parent.length];
+        }
+        for (int i = 0; i < n; i++) {
+            parent[i] = i;
+        }
+        for (int i = 1; i < n; i++) {
+            Blast bi = pending.get(i);
+            for (int j = 0; j < i; j++) {
+                Blast bj = pending.get(j);
+                if (bi.world == bj.world) {
+                    double dx = bi.x - bj.x, dy = bi.y - bj.y, dz = bi.z - bj.z;
+                    if (dx * dx + dy * dy + dz * dz <= r2) {
+                        union(i, j);
+                    }
+                }
+            }
+        }
+
+        // a cluster's root is its lowest index, which (pending being in arrival order) is also its
+        // oldest explosion; the whole cluster is processed once that explosion has waited long
+        // enough, or right away if the root arrived isolated and nothing has joined it since
+        for (int i = 0; i < n; i++) {
+            parent[i] = findRoot(i);
+            if (parent[i] == i) {
+                due[i] = tickCount - pending.get(i).tick >= window || pending.get(i).isolated;
+            } else if (tickCount - pending.get(parent[i]).tick < window) {
+                due[parent[i]] = false;
+            }
+        }
+        int kept = 0;
+        for (int i = 0; i < n; i++) {
+            if (!due[parent[i]]) {
+                pending.set(kept++, pending.get(i));
+            } else if (parent[i] == i) {
+                for (int j = i; j < n; j++) {
+                    if (parent[j] == i) {
+                        cluster.add(pending.get(j));
+                        recent.add(pending.get(j));
+                    }
+                }
+                processCluster();
+            }
+        }
+        for (int i = n - 1; i >= kept; i--) {
+            pending.remove(i);
+        }
+    }
+
+    /**
+     * Forget any pending explosions in a world which is being unloaded.
+     *
+     * @param world the world
+     */
+    public void worldUnloaded(World world) {
+        for (int i = pending.size() - 1; i >= 0; i--) {
+            if (pending.get(i).world == world) {
+                pending.remove(i);
+            }
+        }
+        for (int i = recent.size() - 1; i >= 0; i--) {
+            if (recent.get(i).world == world) {
+                recent.remove(i);
+            }
+        }
+    }
+
+    private void union(int i, int j) {
+        int ri = findRoot(i), rj = findRoot(j);
+        if (ri < rj) {
+            parent[rj] = ri;
+        } else if (rj < ri) {
+            parent[ri] = rj;
+        }
+    }
+
+    private int findRoot(int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    /**
+     * Process the explosions in {@link #cluster}, which are all in the same world, as one blast.
+     */
+    private void processCluster() {
+        World world = cluster.get(0).world;
+        ConfigSnapshot conf = plugin.getSnapshot();
+        final double forceMult = conf.getExplosionForceMult();
+        final int yieldChance = conf.getExplosionYieldChance();
+        boolean primeTNT = conf.isExplosionPrimeTNT();
+        Random rnd = plugin.getRandom();
+
+        // each distinct block is considered just once, however many of the explosions reached it
+        candidates.clear();
+        candidateIdx.clear();
+        int nBlocks = 0;
+        for (int c = 0; c < cluster.size(); c++) {
+            List<Block> blocks = cluster.get(c).blocks;
+            for (int i = 0; i < blocks.size(); i++) {
+                Block b = blocks.get(i);
+                long pos = BlockPos.pack(b);
+                if (candidateIdx.containsKey(pos)) {
+                    continue;
+                }
+                candidateIdx.put(pos, -1);
+                nBlocks++;
+                if (!SlideManager.isSolid(b.getType())) {
+                    // maybe some other plugin has already changed this block (e.g. CreeperHeal?)
+                    continue;
+                }
+                if (b.getType() == Material.TNT && primeTNT) {
+                    b.setType(Material.AIR);
+                    TNTPrimed tnt = b.getWorld().spawn(b.getLocation(), TNTPrimed.class);
+                    tnt.setFuseTicks(20);
+                    continue;
+                }
+                if (plugin.getSlideManager().isMoving(b)) {
+                    // already on its way; leave it be
+                    continue;
+                }
+                if (rnd.nextInt(100) > yieldChance) {
+                    plugin.getSlideManager().blockChanged(b, b.getTypeId());
+                    b.setType(Material.AIR);
+                    continue;
+                }
+                candidates.add(b);
+            }
+        }
+
+        // give protection plugins one chance to veto any of the blocks; vetoed blocks stay put
+        BlockSlideBatchEvent batch = plugin.getSlideManager().callBatchEvent(world, candidates, null, BlockSlideBatchEvent.Cause.EXPLOSION);
+        int n = 0;
+        candidateIdx.clear();
+        for (int i = 0; i < candidates.size(); i++) {
+            if (batch == null || !batch.isVetoed(i)) {
+                candidateIdx.put(BlockPos.pack(candidates.get(i)), n);
+                candidates.set(n++, candidates.get(i));
+            }
+        }
+
+        // sum the push from every explosion on each block
+        if (resultant.length < n * 3) {
+            resultant = new double[Math.max(n * 3, resultant.length * 2)];
+        }
+        Arrays.fill(resultant, 0, n * 3, 0.0);
+        double modX = 0.0, modY = 0.0, modZ = 0.0;
+        for (int c = 0; c < cluster.size(); c++) {
+            Blast blast = cluster.get(c);
+            List<Block> blocks = blast.blocks;
+            double distMax0 = 0.0;
+            for (int i = 0; i < blocks.size(); i++) {
+                Block b = blocks.get(i);
+                double dx = b.getX() - blast.x, dy = b.getY() - blast.y, dz = b.getZ() - blast.z;
+                distMax0 = Math.max(distMax0, dx * dx + dy * dy + dz * dz);
+            }
+            final double distMax = Math.sqrt(distMax0);
+
+            // work out a good direction to bias the block flinging - try to send them towards open air
+            Block centreBlock = world.getBlockAt((int) Math.floor(blast.x), (int) Math.floor(blast.y), (int) Math.floor(blast.z));
+            if (!SlideManager.isSolid(centreBlock.getType())) {
+                centreBlock = findAdjacentSolid(centreBlock);
+            }
+            modX += rnd.nextDouble() * 0.5;
+            modY += rnd.nextDouble() * 0.5;
+            modZ += rnd.nextDouble() * 0.5;
+            for (BlockFace face : LandslidePlugin.allFaces) {
+                Block b1 = centreBlock.getRelative(face);
+                if (!SlideManager.isSolid(b1.getRelative(face).getType()) && SlideManager.isSolid(b1.getRelative(face.getOppositeFace()).getType())) {
+                    modX += face.getModX();
+                    modY += face.getModY();
+                    modZ += face.getModZ();
+                }
+            }
+
+            ensureTable((int) Math.ceil(distMax) + 2);
+            int ox = centreBlock.getX(), oy = centreBlock.getY(), oz = centreBlock.getZ();
+            for (int i = 0; i < blocks.size(); i++) {
+                Block b = blocks.get(i);
+                int idx = candidateIdx.get(BlockPos.pack(b), -1);
+                if (idx < 0) {
+                    continue;
+                }
+                lookup(b.getX() - ox, b.getY() - oy, b.getZ() - oz);
+                double force = forceMult * Math.abs(distMax - unit[3]) / 3.0;
+                resultant[idx * 3] += unit[0] * force;
+                resultant[idx * 3 + 1] += unit[1] * force;
+                resultant[idx * 3 + 2] += unit[2] * force;
+            }
+        }
+        modX /= cluster.size();
+        modY /= cluster.size();
+        modZ /= cluster.size();
+
+        // choose which blocks to fling: all of them, or a random sample if there are too many;
+        // with the rubble solver, only blocks near a player are candidates for flinging
+        boolean solver = conf.isExplosionRubbleSolver();
+        if (order.length < n) {
+            order = new int[Math.max(n, order.length * 2)];
+        }
+        int nEligible = solver ? orderVisible(world, n, conf.getExplosionVisibleRange()) : orderAll(n);
+        int maxFlings = solver ? conf.getExplosionVisibleFlings() : conf.getExplosionMaxFlings();
+        int nFling = maxFlings > 0 || solver ? Math.min(nEligible, maxFlings) : nEligible;
+        if (nFling < nEligible) {
+            for (int i = 0; i < nFling; i++) {
+                int j = i + rnd.nextInt(nEligible - i);
+                int tmp = order[i];
+                order[i] = order[j];
+                order[j] = tmp;
+            }
+        }
+
+        int tag = FallingBlockRegistry.tag(plugin.getSlideManager().getFallingBlocks().newAvalanche(), 0);
+        // if there's rubble, the flung blocks go now too, since the rubble may settle where they were
+        boolean hasRubble = nFling < n;
+        for (int i = 0; i < nFling; i++) {
+            int idx = order[i];
+            if (plugin.getSlideManager().scheduleBlockFling(candidates.get(idx),
+                    resultant[idx * 3], resultant[idx * 3 + 1], resultant[idx * 3 + 2], modX, modY, modZ, tag, hasRubble)) {
+                flung.add(BlockPos.pack(candidates.get(idx)));
+            }
+        }
+        if (nFling < n) {
+            if (solver) {
+                solveRubble(world, nFling, n, modX, modY, modZ);
+            } else {
+                placeRubble(world, nFling, n);
+            }
+        }
+        Debugger.getInstance().debug("explosion: cause = " + cluster.get(0).cause + ", " + cluster.size() + " explosion(s) merged, "
+                + nBlocks + " blocks affected, " + nFling + " flung, " + (n - nFling) + " as rubble");
+        candidates.clear();
+        candidateIdx.clear();
+        flung.clear();
+        cluster.clear();
+    }
+
+    /**
+     * Drop the blocks which weren't flung straight down, stacking them on whatever is below.
+     * Blocks in the same column are handled bottom-up, so that each lands on top of the last.
+     */
+    private void placeRubble(World world, int from, int to) {
+        SlideManager slideManager = plugin.getSlideManager();
+        BlockChangeBatch changes = slideManager.getBlockChanges();
+        WorldContext ctx = plugin.getPerWorldConfig().getContext(world);
+        int nRubble = to - from;
+        if (rubble.length < nRubble) {
+            rubble = new long[Math.max(nRubble, rubble.length * 2)];
+        }
+        rubbleSet.clear();
+        addFlung();
+        for (int i = from; i < to; i++) {
+            Block b = candidates.get(order[i]);
+            long pos = BlockPos.pack(b);
+            rubble[i - from] = BlockPos.toChunkOrder(pos);
+            rubbleSet.add(pos);
+            slideManager.blockChanged(b, b.getTypeId());
+            changes.add(world, pos, 0, (byte) 0);
+        }
+        // chunk order sorts each column's blocks together, lowest first
+        Arrays.sort(rubble, 0, nRubble);
+        long column = Long.MIN_VALUE;
+        int top = -1;
+        for (int i = 0; i < nRubble; i++) {
+            long pos = BlockPos.fromChunkOrder(rubble[i]);
+            int x = BlockPos.getX(pos), y = BlockPos.getY(pos), z = BlockPos.getZ(pos);
+            long col = rubble[i] & ~0xFFFL;
+            if (col != column) {
+                column = col;
+                top = -1;
+            }
+            Block b = world.getBlockAt(x, y, z);
+            int fb = ctx.getTransform(b.getTypeId(), b.getData());
+            int ly = y;
+            while (ly - 1 > top && ly > 1 && (!MaterialFlags.isSolid(world.getBlockTypeIdAt(x, ly - 1, z)) || rubbleSet.contains(BlockPos.pack(x, ly - 1, z)))) {
+                ly--;
+            }
+            top = ly;
+            if (fb >> 4 != 0) {
+                changes.add(world, BlockPos.pack(x, ly, z), fb >> 4, (byte) (fb & 0xF));
+            }
+        }
+        rubbleSet.clear();
+    }
+
+    /**
+     * Add the positions of the flung blocks to {@link #rubbleSet}, so that rubble doesn't settle
+     * on them; they have already been cleared in the same block change batch.
+     */
+    private void addFlung() {
+        long[] keys = flung.rawKeys();
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != Long.MIN_VALUE) {
+                rubbleSet.add(keys[i]);
+            }
+        }
+    }
+
+    private int orderAll(int n) {
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        return n;
+    }
+
+    /**
+     * Fill {@link #order} with the candidates within range of a player first, then the rest.
+     *
+     * @return the number of candidates within range of a player
+     */
+    private int orderVisible(World world, int n, double range) {
+        List<Player> players = world.getPlayers();
+        double r2 = range * range;
+        int front = 0, back = n;
+        for (int i = 0; i < n; i++) {
+            Block b = candidates.get(i);
+            boolean near = false;
+            for (int p = 0; p < players.size() && !near; p++) {
+                Location loc = players.get(p).getLocation();
+                double dx = loc.getX() - b.getX(), dy = loc.getY() - b.getY(), dz = loc.getZ() - b.getZ();
+                near = dx * dx + dy * dy + dz * dz <= r2;
+            }
+            if (near) {
+                order[front++] = i;
+            } else {
+                order[--back] = i;
+            }
+        }
+        return front;
+    }
+
+    /**
+     * Work out where each of the blocks which weren't flung would have landed, had it been
+     * flung, and place it there directly.  Blocks are solved lowest first, so that rubble stacks
+     * up on earlier rubble as falling blocks would.
+     */
+    private void solveRubble(World world, int from, int to, double mx, double my, double mz) {
+        SlideManager slideManager = plugin.getSlideManager();
+        BlockChangeBatch changes = slideManager.getBlockChanges();
+        WorldContext ctx = plugin.getPerWorldConfig().getContext(world);
+        int nRubble = to - from;
+        if (rubble.length < nRubble) {
+            rubble = new long[Math.max(nRubble, rubble.length * 2)];
+        }
+        // rubbleSet holds the positions being cleared (including the flung blocks), landed the
+        // positions rubble has been put in
+        rubbleSet.clear();
+        addFlung();
+        landed.clear();
+        if (transforms.length < candidates.size()) {
+            transforms = new int[Math.max(candidates.size(), transforms.length * 2)];
+        }
+        // every block is cleared before any lands, since the batch keeps the last change made to
+        // a position, and rubble may land where a block yet to be solved used to be
+        for (int i = from; i < to; i++) {
+            int idx = order[i];
+            Block b = candidates.get(idx);
+            rubble[i - from] = ((long) b.getY() << 32) | idx;
+            rubbleSet.add(BlockPos.pack(b));
+            transforms[idx] = ctx.getTransform(b.getTypeId(), b.getData());
+            slideManager.blockChanged(b, b.getTypeId());
+            changes.add(world, BlockPos.pack(b), 0, (byte) 0);
+        }
+        Arrays.sort(rubble, 0, nRubble);
+
+        int lost = 0;
+        for (int i = 0; i < nRubble; i++) {
+            int idx = (int) rubble[i];
+            Block b = candidates.get(idx);
+            int fb = transforms[idx];
+
+            long pos = solveLanding(world, b, resultant[idx * 3] + mx * 0.5, resultant[idx * 3 + 1] + my * 0.5, resultant[idx * 3 + 2] + mz * 0.5, mx, my, mz);
+            if (pos == Long.MIN_VALUE) {
+                lost++;
+                continue;
+            }
+            landed.add(pos);
+            if (fb >> 4 != 0) {
+                changes.add(world, pos, fb >> 4, (byte) (fb & 0xF));
+            }
+        }
+        if (lost > 0) {
+            Debugger.getInstance().debug("rubble solver: " + lost + " blocks fell out of the world or into unloaded chunks");
+        }
+        rubbleSet.clear();
+        landed.clear();
+    }
+
+    /**
+     * Follow the path of a flung block tick by tick, using the closed form for its position after
+     * t ticks, until it lands.  A block which hits a wall or ceiling drops straight down from where
+     * it was.
+     *
+     * @return the packed position the block comes to rest in, or Long.MIN_VALUE if it never does
+     */
+    private long solveLanding(World world, Block b, double vx, double vy, double vz, double ox, double oy, double oz) {
+        double x0 = b.getX() + ox, y0 = b.getY() + oy, z0 = b.getZ() + oz;
+        int cx = (int) Math.floor(x0), cy = (int) Math.floor(y0), cz = (int) Math.floor(z0);
+        if (isSolidAt(world, cx, cy, cz)) {
+            // the spawn offset put it inside something; start from the block's own position
+            x0 = b.getX() + 0.5;
+            y0 = b.getY();
+            z0 = b.getZ() + 0.5;
+            cx = b.getX();
+            cy = b.getY();
+            cz = b.getZ();
+        }
+        double dragPow = 1.0;
+        for (int t = 1; t <= MAX_FLIGHT_TICKS; t++) {
+            dragPow *= DRAG;
+            double decay = (1.0 - dragPow) / (1.0 - DRAG);
+            int nx = (int) Math.floor(x0 + vx * decay);
+            int ny = (int) Math.floor(y0 + t * (TERMINAL - GRAVITY) + (vy - TERMINAL) * decay);
+            int nz = (int) Math.floor(z0 + vz * decay);
+            if (nx != cx || nz != cz) {
+                if (!world.isChunkLoaded(nx >> 4, nz >> 4) || isSolidAt(world, nx, cy, nz)) {
+                    break;
+                }
+                cx = nx;
+                cz = nz;
+            }
+            if (ny > cy) {
+                for (int y = cy + 1; y <= ny; y++) {
+                    if (isSolidAt(world, cx, y, cz)) {
+                        return dropFrom(world, cx, cy, cz);
+                    }
+                }
+            } else {
+                for (int y = cy - 1; y >= ny; y--) {
+                    if (y < 1) {
+                        return Long.MIN_VALUE;
+                    }
+                    if (isSolidAt(world, cx, y, cz)) {
+                        return BlockPos.pack(cx, y + 1, cz);
+                    }
+                }
+            }
+            cy = Math.min(ny, world.getMaxHeight() - 1);
+        }
+        return dropFrom(world, cx, cy, cz);
+    }
+
+    private long dropFrom(World world, int x, int y, int z) {
+        while (y > 1 && !isSolidAt(world, x, y - 1, z)) {
+            y--;
+        }
+        return y > 1 ? BlockPos.pack(x, y, z) : Long.MIN_VALUE;
+    }
+
+    private boolean isSolidAt(World world, int x, int y, int z) {
+        if (y >= world.getMaxHeight()) {
+            return false;
+        }
+        long pos = BlockPos.pack(x, y, z);
+        if (landed.contains(pos)) {
+            return true;
+        }
+        return !rubbleSet.contains(pos) && MaterialFlags.isSolid(world.getBlockTypeIdAt(x, y, z));
+    }
+
+    private void ensureTable(int radius) {
+        radius = Math.min(radius, MAX_TABLE_RADIUS);
+        if (radius <= tableRadius) {
+            return;
+        }
+        int side = radius * 2 + 1;
+        float[] t = new float[side * side * side * 4];
+        int i = 0;
+        for (int dx = -radius; dx <= radius; dx++) {
+            for (int dy = -radius; dy <= radius; dy++) {
+                for (int dz = -radius; dz <= radius; dz++) {
+                    compute(dx, dy, dz);
+                    t[i++] = (float) unit[0];
+                    t[i++] = (float) unit[1];
+                    t[i++] = (float) unit[2];
+                    t[i++] = (float) unit[3];
+                }
+            }
+        }
+        table = t;
+        tableRadius = radius;
+        tableSide = side;
+    }
+
+    /**
+     * Get the unit vector and length of the given offset into {@link #unit}.
+     */
+    private void lookup(int dx, int dy, int dz) {
+        int r = tableRadius;
+        if (dx < -r || dx > r || dy < -r || dy > r || dz < -r || dz > r) {
+            compute(dx, dy, dz);
+            return;
+        }
+        int i = (((dx + r) * tableSide + (dy + r)) * tableSide + (dz + r)) * 4;
+        unit[0] = table[i];
+        unit[1] = table[i + 1];
+        unit[2] = table[i + 2];
+        unit[3] = table[i + 3];
+    }
+
+    private void compute(int dx, int dy, int dz) {
+        double y = dy;
+        if (dx == 0 && dy == 0 && dz == 0) {
+            y = 0.1;  // can't have a zero vector here; it won't normalize properly
+        }
+        double len = Math.sqrt(dx * dx + y * y + dz * dz);
+        unit[0] = dx / len;
+        unit[1] = y / len;
+        unit[2] = dz / len;
+        unit[3] = len;
+    }
+
+    private Block findAdjacentSolid(Block b) {
+        for (BlockFace face : LandslidePlugin.allFaces) {
+            Block b1 = b.getRelative(face);
+            if (SlideManager.isSolid(b.getType())) {
+                return b1;
+            }
+        }
+        return b;
+    }
+
+    private static class Blast {
+        private final Entity cause;
+        private final World world;
+        private final double x, y, z;
+        private final List<Block> blocks;
+        private final long tick;
+        // nothing was near it when it arrived
+        private boolean isolated;
+
+        private Blast(Entity cause, Location centre, List<Block> blocks, long tick) {
+            this.cause = cause;
+            this.world = centre.getWorld();
+            this.x = centre.getX();
+            this.y = centre.getY();
+            this.z = centre.getZ();
+            this.blocks = blocks;
+            this.tick = tick;
+        }
+    }
+}
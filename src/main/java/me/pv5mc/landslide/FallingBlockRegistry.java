@@ -0,0 +1,218 @@
+package me.pv5mc.landslide;
+
+/*
+This file is part of Landslide
+
+Landslide is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Landslide is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Landslide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import org.bukkit.entity.FallingBlock;
+
+import java.util.Arrays;
+
+/**
+ * Records every falling block entity spawned by Landslide, keyed by entity ID, along with where
+ * it came from, which avalanche it belongs to and how many times it has bounced so far.  This
+ * lets event handlers tell our own falling blocks from vanilla or other plugins' ones with a
+ * single hash lookup.
+ * <p>
+ * Slides and flings carry a compact tag (avalanche ID and bounce count) while they are queued;
+ * see {@link #tag(int, int)}.  Entries are removed when the entity lands, when its world is
+ * unloaded, or after {@link #MAX_AGE} ticks, by which time the entity is long gone.
+ */
+public class FallingBlockRegistry {
+    public static final int MAX_AGE = 1200;
+    public static final int MAX_BOUNCES = 0xFF;
+
+    private static final int AVALANCHE_MASK = 0xFFFFFF;
+
+    private final LongIntHashMap slots = new LongIntHashMap(64);
+    private int[] entityIds = new int[64];
+    private int[] worlds = new int[64];
+    private long[] origins = new long[64];
+    private int[] tags = new int[64];
+    private boolean[] settled = new boolean[64];
+    private long[] spawned = new long[64];
+    private int[] nextFree = new int[64];
+    private int freeHead = -1;
+    private int highWater;
+    private int lastAvalanche;
+
+    /**
+     * Pack an avalanche ID and bounce count into a tag.  A tag of 0 means "not yet part of any
+     * avalanche".
+     *
+     * @param avalanche the avalanche ID
+     * @param bounces   the number of bounces; saturates at {@link #MAX_BOUNCES}
+     * @return the tag
+     */
+    public static int tag(int avalanche, int bounces) {
+        return (avalanche & AVALANCHE_MASK) << 8 | Math.min(bounces, MAX_BOUNCES);
+    }
+
+    public static int getAvalanche(int tag) {
+        return (tag >>> 8) & AVALANCHE_MASK;
+    }
+
+    public static int getBounces(int tag) {
+        return tag & MAX_BOUNCES;
+    }
+
+    /**
+     * Allocate a new avalanche ID; never zero.
+     *
+     * @return the new ID
+     */
+    public int newAvalanche() {
+        lastAvalanche = (lastAvalanche + 1) & AVALANCHE_MASK;
+        if (lastAvalanche == 0) {
+            lastAvalanche = 1;
+        }
+        return lastAvalanche;
+    }
+
+    public int size() {
+        return slots.size();
+    }
+
+    /**
+     * Record a falling block which Landslide has just spawned.
+     *
+     * @param fb     the falling block
+     * @param world  the world index
+     * @param origin packed position of the block it was spawned from
+     * @param tag    the slide's tag
+     * @param now    the current tick
+     * @return the new entry's slot
+     */
+    public int register(FallingBlock fb, int world, long origin, int tag, long now) {
+        int slot;
+        if (freeHead >= 0) {
+            slot = freeHead;
+            freeHead = nextFree[slot];
+        } else {
+            if (highWater == entityIds.length) {
+                int cap = highWater * 2;
+                entityIds = Arrays.copyOf(entityIds, cap);
+                worlds = Arrays.copyOf(worlds, cap);
+                origins = Arrays.copyOf(origins, cap);
+                tags = Arrays.copyOf(tags, cap);
+                settled = Arrays.copyOf(settled, cap);
+                spawned = Arrays.copyOf(spawned, cap);
+                nextFree = Arrays.copyOf(nextFree, cap);
+            }
+            slot = highWater++;
+        }
+        entityIds[slot] = fb.getEntityId();
+        worlds[slot] = world;
+        origins[slot] = origin;
+        tags[slot] = tag;
+        settled[slot] = false;
+        spawned[slot] = now;
+        slots.put(fb.getEntityId(), slot);
+        return slot;
+    }
+
+    /**
+     * Find a falling block's entry.
+     *
+     * @param entityId the entity ID
+     * @return the entry's slot, or -1 if the entity isn't one of ours
+     */
+    public int find(int entityId) {
+        return slots.get(entityId, -1);
+    }
+
+    public boolean isOwned(int entityId) {
+        return slots.containsKey(entityId);
+    }
+
+    public int getWorld(int slot) {
+        return worlds[slot];
+    }
+
+    public long getOrigin(int slot) {
+        return origins[slot];
+    }
+
+    public int getTag(int slot) {
+        return tags[slot];
+    }
+
+    public void setTag(int slot, int tag) {
+        tags[slot] = tag;
+    }
+
+    /**
+     * Mark whether the falling block's resting place has already been decided, in which case it
+     * must not bounce again when it lands.
+     *
+     * @param slot    the entry's slot
+     * @param settled true if the block is settled
+     */
+    public void setSettled(int slot, boolean settled) {
+        this.settled[slot] = settled;
+    }
+
+    public boolean isSettled(int slot) {
+        return settled[slot];
+    }
+
+    public int getAvalancheOf(int slot) {
+        return getAvalanche(tags[slot]);
+    }
+
+    public int getBouncesOf(int slot) {
+        return getBounces(tags[slot]);
+    }
+
+    /**
+     * Remove an entry.
+     *
+     * @param slot the entry's slot, as returned by {@link #find(int)}
+     */
+    public void release(int slot) {
+        slots.remove(entityIds[slot]);
+        nextFree[slot] = freeHead;
+        freeHead = slot;
+    }
+
+    /**
+     * Remove entries for entities which must have disappeared without landing, e.g. by breaking
+     * into an item.
+     *
+     * @param now the current tick
+     */
+    public void expire(long now) {
+        for (int slot = 0; slot < highWater; slot++) {
+            if (now - spawned[slot] > MAX_AGE && slots.get(entityIds[slot], -1) == slot) {
+                release(slot);
+            }
+        }
+    }
+
+    /**
+     * Remove all entries for a world which is being unloaded.
+     *
+     * @param world the world index
+     */
+    public void removeWorld(int world) {
+        for (int slot = 0; slot < highWater; slot++) {
+            if (worlds[slot] == world && slots.get(entityIds[slot], -1) == slot) {
+                release(slot);
+            }
+        }
+    }
+}
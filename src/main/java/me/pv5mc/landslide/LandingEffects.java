@@ -0,0 +1,129 @@
+package me.pv5mc.landslide;
+
+/*
+This file is part of Landslide
+
+Landslide is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Landslide is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Landslide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import org.bukkit.Location;
+import org.bukkit.Sound;
+import org.bukkit.World;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Gathers up the landing sounds for falling blocks over a tick and plays one sound per chunk
+ * section (16x16x16 blocks) rather than one per block.  The sound is played at the centre of the
+ * landings in the section, a little louder (i.e. audible from further away) the more blocks
+ * landed there.
+ */
+public class LandingEffects {
+    // sounds to play at random when blocks land
+    private static final Sound[] landingSounds = new Sound[]{
+            Sound.STEP_GRAVEL,
+            Sound.STEP_SAND,
+            Sound.STEP_STONE,
+            Sound.DIG_GRASS,
+            Sound.DIG_GRAVEL,
+            Sound.DIG_SAND,
+    };
+    private static final float BASE_VOLUME = 2.0f;
+    private static final float MAX_VOLUME = 4.0f;
+    private static final float PITCH = 0.5f;
+
+    // keyed by section X/Z, with the world index and section Y packed into the Y field
+    private final LongIntHashMap clusters = new LongIntHashMap(64);
+    private World[] worlds = new World[16];
+    private double[] sums = new double[16 * 3];
+    private int[] solid = new int[16];
+    private int[] snow = new int[16];
+    private int nClusters;
+    private final Location scratch = new Location(null, 0, 0, 0);
+
+    /**
+     * Note that a falling block has landed at the given position.
+     *
+     * @param ctx    the world's context
+     * @param x      X coordinate
+     * @param y      Y coordinate
+     * @param z      Z coordinate
+     * @param isSnow true for snow, which makes a quieter sound
+     */
+    public void add(WorldContext ctx, double x, double y, double z, boolean isSnow) {
+        int bx = (int) Math.floor(x), by = (int) Math.floor(y), bz = (int) Math.floor(z);
+        long key = BlockPos.pack(bx >> 4, ((ctx.getIndex() & 0xFF) << 4) | ((by >> 4) & 0xF), bz >> 4);
+        int c = clusters.get(key, -1);
+        if (c >= 0 && worlds[c] != ctx.getWorld()) {
+            // world indexes beyond 255 share keys; not worth aggregating across them
+            ctx.getWorld().playSound(new Location(ctx.getWorld(), x, y, z), isSnow ? Sound.STEP_SNOW : landingSounds[0], BASE_VOLUME, PITCH);
+            return;
+        }
+        if (c < 0) {
+            c = nClusters++;
+            if (c == worlds.length) {
+                int cap = c * 2;
+                worlds = Arrays.copyOf(worlds, cap);
+                sums = Arrays.copyOf(sums, cap * 3);
+                solid = Arrays.copyOf(solid, cap);
+                snow = Arrays.copyOf(snow, cap);
+            }
+            clusters.put(key, c);
+            worlds[c] = ctx.getWorld();
+            sums[c * 3] = sums[c * 3 + 1] = sums[c * 3 + 2] = 0.0;
+            solid[c] = snow[c] = 0;
+        }
+        sums[c * 3] += x;
+        sums[c * 3 + 1] += y;
+        sums[c * 3 + 2] += z;
+        if (isSnow) {
+            snow[c]++;
+        } else {
+            solid[c]++;
+        }
+    }
+
+    /**
+     * Play the sounds for everything which landed since the last call.  Called once per tick.
+     *
+     * @param random random number source
+     */
+    public void flush(Random random) {
+        for (int c = 0; c < nClusters; c++) {
+            int n = solid[c] + snow[c];
+            scratch.setWorld(worlds[c]);
+            scratch.setX(sums[c * 3] / n);
+            scratch.setY(sums[c * 3 + 1] / n);
+            scratch.setZ(sums[c * 3 + 2] / n);
+            if (snow[c] > 0) {
+                // snow falling is nice and quiet!
+                worlds[c].playSound(scratch, Sound.STEP_SNOW, volume(snow[c]), PITCH);
+            }
+            if (solid[c] > 0) {
+                worlds[c].playSound(scratch, landingSounds[random.nextInt(landingSounds.length)], volume(solid[c]), PITCH);
+            }
+            worlds[c] = null;
+        }
+        scratch.setWorld(null);
+        clusters.clear();
+        nClusters = 0;
+    }
+
+    private static float volume(int count) {
+        // each doubling of the number of blocks adds a little to the range the sound carries
+        return Math.min(MAX_VOLUME, BASE_VOLUME + 0.5f * (31 - Integer.numberOfLeadingZeros(count)));
+    }
+}
@@ -47,14 +47,19 @@ public class LandslidePlugin extends JavaPlugin implements ConfigurationListener
     private final SlideManager slideManager = new SlideManager(this);
     private final CommandManager cmds = new CommandManager(this);
     private final SnowHandler snowHandler = new SnowHandler(this);
+    private final TickBudget tickBudget = new TickBudget();
+    private final AsyncSlideEvaluator asyncEvaluator = new AsyncSlideEvaluator(this);
+    private final DeferredSlideChecks deferredChecks = new DeferredSlideChecks(this);
+    private final ExplosionProcessor explosionProcessor = new ExplosionProcessor(this);
 
     private final Random random = new Random();
     private ConfigurationManager configManager;
     private WorldGuardPlugin worldGuardPlugin = null;
+    private WorldGuardCache worldGuardCache = null;
+    private volatile ConfigSnapshot snapshot;
     private PerWorldConfiguration perWorldConfig;
+    private EventListener eventListener;
 
-    private int ticks = 0;
-    private int snowInterval = 600;
     private boolean protocolLibEnabled = false;
 
     private static LandslidePlugin instance = null;
@@ -101,15 +106,19 @@ public class LandslidePlugin extends JavaPlugin implements ConfigurationListener
         SlideOTron.setupRecipe();
 
         PluginManager pm = this.getServer().getPluginManager();
-        pm.registerEvents(new EventListener(this), this);
+        eventListener = new EventListener(this);
+        pm.registerEvents(eventListener, this);
 
         getServer().getScheduler().runTaskTimer(this, new Runnable() {
             @Override
             public void run() {
+                ConfigSnapshot snap = snapshot;
+                tickBudget.startTick(snap.getAdaptiveBudgetTargetMspt(), snap.getAdaptiveBudgetMinMs(), snap.getAdaptiveBudgetMaxMs());
+                eventListener.tick();
+                explosionProcessor.tick();
                 slideManager.tick();
-                if (snowInterval > 0 && ++ticks % snowInterval == 0) {
-                    snowHandler.tick();
-                }
+                deferredChecks.process();
+                snowHandler.tick(snap.getSnowCheckInterval() * 20);
             }
         }, 1L, 1L);
 
@@ -118,6 +127,8 @@ public class LandslidePlugin extends JavaPlugin implements ConfigurationListener
 
     @Override
     public void onDisable() {
+        asyncEvaluator.shutdown();
+        snowHandler.saveAll();
         instance = null;
     }
 
@@ -159,6 +170,8 @@ public class LandslidePlugin extends JavaPlugin implements ConfigurationListener
         if (plugin != null && plugin.isEnabled() && plugin instanceof WorldGuardPlugin) {
             Debugger.getInstance().debug("Hooked WorldGuard v" + plugin.getDescription().getVersion());
             worldGuardPlugin = (WorldGuardPlugin) plugin;
+            worldGuardCache = new WorldGuardCache(this);
+            getServer().getPluginManager().registerEvents(worldGuardCache, this);
         }
     }
 
@@ -182,6 +195,26 @@ public class LandslidePlugin extends JavaPlugin implements ConfigurationListener
         return slideManager;
     }
 
+    public EventListener getEventListener() {
+        return eventListener;
+    }
+
+    public AsyncSlideEvaluator getAsyncEvaluator() {
+        return asyncEvaluator;
+    }
+
+    public DeferredSlideChecks getDeferredChecks() {
+        return deferredChecks;
+    }
+
+    public ExplosionProcessor getExplosionProcessor() {
+        return explosionProcessor;
+    }
+
+    public TickBudget getTickBudget() {
+        return tickBudget;
+    }
+
     public PerWorldConfiguration getPerWorldConfig() {
         return perWorldConfig;
     }
@@ -194,30 +227,46 @@ public class LandslidePlugin extends JavaPlugin implements ConfigurationListener
         return worldGuardPlugin;
     }
 
-    public void processConfig() {
-        MiscUtil.setColouredConsole(getConfig().getBoolean("coloured_console"));
+    /**
+     * Get the WorldGuard flag cache.
+     *
+     * @return the cache, or null if WorldGuard is not available
+     */
+    public WorldGuardCache getWorldGuardCache() {
+        return worldGuardCache;
+    }
 
-        slideManager.setMaxSlidesPerTick(getConfig().getInt("max_slides_per_tick", 20));
-        slideManager.setMaxSlidesTotal(getConfig().getInt("max_slides_total", 200));
+    /**
+     * Get the current snapshot of the global settings.  The snapshot is immutable and is replaced
+     * whenever the configuration changes, so it's safe to use from any thread; just don't hang on
+     * to it for longer than needed.
+     *
+     * @return the current configuration snapshot
+     */
+    public ConfigSnapshot getSnapshot() {
+        return snapshot;
+    }
 
+    public void processConfig() {
+        publishSnapshot();
+        slideManager.getQuotas().processConfig(getConfig().getConfigurationSection("quotas"));
         if (isWorldGuardAvailable()) {
-            slideManager.setWorldGuardEnabled(getConfig().getBoolean("worldguard.enabled"));
-            slideManager.setWorldGuardFlag(getConfig().getString("worldguard.use_flag"));
+            worldGuardCache.invalidate();
         }
+    }
 
-        snowInterval = getConfig().getInt("snow.check_interval") * 20;
-
-        slideManager.setBracingMaterials(getConfig().getStringList("bracing_materials"));
-        slideManager.setBracingDistance(getConfig().getInt("bracing_distance"));
-        slideManager.setFullBracingScan(getConfig().getBoolean("full_bracing_scan"));
-        slideManager.setStickyPistonsRetracted(getConfig().getBoolean("sticky_pistons.retracted"));
-        slideManager.setStickyPistonsExtended(getConfig().getBoolean("sticky_pistons.extended"));
-        SlideManager.setNonVanilla(getConfig().getBoolean("non_vanilla"));
-
-        snowHandler.setMeltAway(getConfig().getBoolean("snow.melt_away"));
-        snowHandler.setSnowSmoothing(getConfig().getBoolean("snow.smoothing"));
-        snowHandler.setWgChecks(isWorldGuardAvailable() && getSlideManager().isWorldGuardEnabled());
-        snowHandler.setMeltLightLevel(getConfig().getInt("snow.melt_light_level"));
+    /**
+     * Publish a new snapshot of the global settings; components read their settings from it as
+     * they need them.  Only state which is derived from the settings, or which lives outside
+     * this plugin, is updated here.
+     */
+    private void publishSnapshot() {
+        ConfigSnapshot snap = new ConfigSnapshot(getConfig());
+        snapshot = snap;
+
+        MiscUtil.setColouredConsole(snap.isColouredConsole());
+        MaterialFlags.setNonVanilla(snap.isNonVanilla());
+        slideManager.configChanged();
     }
 
     public void validateWorldGuardFlag(String flagName) {
@@ -252,8 +301,30 @@ public class LandslidePlugin extends JavaPlugin implements ConfigurationListener
                     throw new DHUtilsException("Invalid material: " + s);
                 }
             }
-        } else if (key.equals("bracing_distance")) {
+        } else if (key.equals("explosions.max_flings") || key.equals("explosions.coalesce_ticks")
+                || key.equals("explosions.visible_flings") || key.equals("snow.simulation_radius")) {
             DHValidate.isTrue((Integer) newVal >= 0, "Value must be >= 0");
+        } else if (key.equals("explosions.coalesce_radius") || key.equals("explosions.visible_range")) {
+            DHValidate.isTrue(((Number) newVal).doubleValue() >= 0.0, "Value must be >= 0");
+        } else if (key.equals("max_bounces")) {
+            int max = (Integer) newVal;
+            DHValidate.isTrue(max >= 0 && max < FallingBlockRegistry.MAX_BOUNCES, "Value must be in the range 0-" + (FallingBlockRegistry.MAX_BOUNCES - 1) + " inclusive");
+        } else if (key.equals("worldguard.cache_ttl")) {
+            DHValidate.isTrue((Integer) newVal >= 0, "Value must be >= 0");
+        } else if (key.equals("bracing_distance")) {
+            int dist = (Integer) newVal;
+            DHValidate.isTrue(dist >= 0 && dist <= 64, "Value must be in the range 0-64 inclusive");
+        } else if (key.equals("adaptive_budget.target_mspt") || key.equals("adaptive_budget.min_ms") || key.equals("adaptive_budget.max_ms")
+                || key.equals("deferred_checks.max_ms") || key.equals("snow.max_ms")) {
+            DHValidate.isTrue(((Number) newVal).doubleValue() > 0.0, "Value must be > 0");
+        } else if (key.equals("quotas.chunk_share")) {
+            int pct = (Integer) newVal;
+            DHValidate.isTrue(pct >= 1 && pct <= 100, "Value must be a percentage (1-100 inclusive)");
+        } else if (key.equals("quotas.headroom")) {
+            int pct = (Integer) newVal;
+            DHValidate.isTrue(pct >= 0 && pct <= 50, "Value must be in the range 0-50 inclusive");
+        } else if (key.startsWith("quotas.world_shares.")) {
+            DHValidate.isTrue((Integer) newVal >= 1, "Value must be >= 1");
         } else if (key.startsWith("transform.")) {
             String s = key.substring(key.indexOf('.') + 1);
             MaterialData from = LandslidePlugin.parseMaterialData(s);
@@ -271,10 +342,10 @@ public class LandslidePlugin extends JavaPlugin implements ConfigurationListener
 
     @Override
     public void onConfigurationChanged(ConfigurationManager configurationManager, String key, Object oldVal, Object newVal) {
-        if (key.equals("max_slides_per_tick")) {
-            slideManager.setMaxSlidesPerTick((Integer) newVal);
-        } else if (key.equals("max_slides_total")) {
-            slideManager.setMaxSlidesTotal((Integer) newVal);
+        publishSnapshot();
+
+        if (key.startsWith("quotas.")) {
+            slideManager.getQuotas().processConfig(getConfig().getConfigurationSection("quotas"));
         } else if (key.equals("debug_level")) {
             Debugger dbg = Debugger.getInstance();
             dbg.setLevel((Integer) newVal);
@@ -283,47 +354,15 @@ public class LandslidePlugin extends JavaPlugin implements ConfigurationListener
             } else {
                 dbg.setTarget(null);
             }
-        } else if (key.equals("coloured_console")) {
-            MiscUtil.setColouredConsole((Boolean) newVal);
-        } else if (key.equals("worldguard.enabled")) {
-            slideManager.setWorldGuardEnabled((Boolean) newVal);
-            slideManager.setWorldGuardFlag(getConfig().getString("worldguard.use_flag"));
-            snowHandler.setWgChecks((Boolean) newVal);
-        } else if (key.equals("worldguard.use_flag")) {
-            slideManager.setWorldGuardFlag((String) newVal);
-        } else if (key.equals("snow.check_interval")) {
-            snowInterval = (Integer) newVal * 20;
-        } else if (key.equals("bracing_materials")) {
-            //noinspection unchecked
-            slideManager.setBracingMaterials((List<String>) newVal);
-        } else if (key.equals("bracing_distance")) {
-            slideManager.setBracingDistance((Integer) newVal);
-        } else if (key.equals("full_bracing_scan")) {
-            slideManager.setFullBracingScan((Boolean) newVal);
-        } else if (key.equals("sticky_pistons.retracted")) {
-            slideManager.setStickyPistonsRetracted((Boolean) newVal);
-        } else if (key.equals("sticky_pistons.extended")) {
-            slideManager.setStickyPistonsExtended((Boolean) newVal);
-        } else if (key.equals("snow.melt_away")) {
-            snowHandler.setMeltAway((Boolean) newVal);
-        } else if (key.equals("snow.smoothing")) {
-            snowHandler.setSnowSmoothing((Boolean) newVal);
-        } else if (key.equals("snow.melt_light_level")) {
-            snowHandler.setMeltLightLevel((Integer) newVal);
-        } else if (key.equals("non_vanilla")) {
-            SlideManager.setNonVanilla((Boolean) newVal);
+        } else if (key.startsWith("worldguard.") && isWorldGuardAvailable()) {
+            worldGuardCache.invalidate();
         } else {
             getPerWorldConfig().processKey(getConfig(), key);
         }
     }
 
     public boolean isOrphan(Block block) {
-        for (BlockFace f : LandslidePlugin.allFaces) {
-            if (SlideManager.isSolid(block.getRelative(f).getType())) {
-                return false;
-            }
-        }
-        return true;
+        return slideManager.isOrphan(slideManager.loadNeighbourhood(block));
     }
 
 
@@ -0,0 +1,57 @@
+package me.pv5mc.landslide;
+
+/*
+This file is part of Landslide
+
+Landslide is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Landslide is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Landslide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import org.bukkit.World;
+
+/**
+ * A block source which reads directly from a loaded world, seen through any changes which are
+ * still waiting to be written by a block change batch.  Must only be used from the main server
+ * thread.
+ */
+public class LiveBlockSource implements BlockSource {
+    private final BlockChangeBatch pending;
+    private World world;
+
+    public LiveBlockSource(BlockChangeBatch pending) {
+        this.pending = pending;
+    }
+
+    public LiveBlockSource setWorld(World world) {
+        this.world = world;
+        return this;
+    }
+
+    @Override
+    public int getTypeId(int x, int y, int z) {
+        if (y < 0 || y >= world.getMaxHeight()) {
+            return 0;
+        }
+        int p = pending.getPending(world, BlockPos.pack(x, y, z));
+        return p >= 0 ? p >> 4 : world.getBlockTypeIdAt(x, y, z);
+    }
+
+    @Override
+    public int getData(int x, int y, int z) {
+        if (y < 0 || y >= world.getMaxHeight()) {
+            return 0;
+        }
+        int p = pending.getPending(world, BlockPos.pack(x, y, z));
+        return p >= 0 ? p & 0xF : world.getBlockAt(x, y, z).getData();
+    }
+}
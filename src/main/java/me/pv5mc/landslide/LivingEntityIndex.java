@@ -0,0 +1,112 @@
+package me.pv5mc.landslide;
+
+/*
+This file is part of Landslide
+
+Landslide is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Landslide is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Landslide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.LivingEntity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A per-tick spatial hash of living entities, keyed by the block position they stand in.
+ * <p>
+ * A chunk's entities are scanned the first time a position in that chunk is queried during a
+ * tick; every later query in the same chunk and tick is a hash lookup.  This keeps the cost of
+ * many blocks landing in one busy chunk (an avalanche over a mob farm, say) to a single entity
+ * scan per chunk per tick.  The index is discarded by {@link #clear()} at the start of each tick,
+ * so it never holds on to entities for longer than that.
+ */
+public class LivingEntityIndex {
+    private LongHashSet[] scanned = new LongHashSet[4];
+    private LongIntHashMap[] heads = new LongIntHashMap[4];
+    private final List<LivingEntity> entities = new ArrayList<LivingEntity>();
+    private int[] next = new int[64];
+    private final Location scratch = new Location(null, 0, 0, 0);
+
+    /**
+     * Add every living entity standing in the given block to the list.
+     *
+     * @param ctx the world's context
+     * @param x   block X
+     * @param y   block Y
+     * @param z   block Z
+     * @param out receives the entities
+     * @return the number of entities added
+     */
+    public int getEntitiesAt(WorldContext ctx, int x, int y, int z, List<LivingEntity> out) {
+        int idx = ctx.getIndex();
+        if (idx >= scanned.length) {
+            int cap = Math.max(idx + 1, scanned.length * 2);
+            scanned = Arrays.copyOf(scanned, cap);
+            heads = Arrays.copyOf(heads, cap);
+        }
+        if (scanned[idx] == null) {
+            scanned[idx] = new LongHashSet(16);
+            heads[idx] = new LongIntHashMap(64);
+        }
+        if (scanned[idx].add(BlockPos.chunkKey(x >> 4, z >> 4))) {
+            index(idx, ctx.getWorld(), x >> 4, z >> 4);
+        }
+        int n = 0;
+        for (int i = heads[idx].get(BlockPos.pack(x, y, z), -1); i >= 0; i = next[i]) {
+            out.add(entities.get(i));
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Discard the index.  Called at the start of each tick.
+     */
+    public void clear() {
+        for (int i = 0; i < scanned.length; i++) {
+            if (scanned[i] != null) {
+                scanned[i].clear();
+                heads[i].clear();
+            }
+        }
+        entities.clear();
+    }
+
+    private void index(int idx, World world, int chunkX, int chunkZ) {
+        if (!world.isChunkLoaded(chunkX, chunkZ)) {
+            return;
+        }
+        Chunk chunk = world.getChunkAt(chunkX, chunkZ);
+        for (Entity e : chunk.getEntities()) {
+            if (e instanceof LivingEntity) {
+                e.getLocation(scratch);
+                long pos = BlockPos.pack(scratch.getBlockX(), scratch.getBlockY(), scratch.getBlockZ());
+                int slot = entities.size();
+                entities.add((LivingEntity) e);
+                if (slot >= next.length) {
+                    next = Arrays.copyOf(next, next.length * 2);
+                }
+                next[slot] = heads[idx].get(pos, -1);
+                heads[idx].put(pos, slot);
+            }
+        }
+        scratch.setWorld(null);
+    }
+}
@@ -0,0 +1,164 @@
+package me.pv5mc.landslide;
+
+/*
+This file is part of Landslide
+
+Landslide is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Landslide is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Landslide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+
+/**
+ * A minimal open-addressing hash set of longs, with no boxing.  Uses linear probing with
+ * backward-shift deletion, so there are no tombstones to clean up.
+ */
+public class LongHashSet {
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] keys;
+    private int mask;
+    private int size;
+    private boolean hasEmptyKey;
+
+    public LongHashSet() {
+        this(16);
+    }
+
+    public LongHashSet(int expected) {
+        int cap = Integer.highestOneBit(Math.max(expected, 8) * 2 - 1) << 1;
+        keys = new long[cap];
+        Arrays.fill(keys, EMPTY);
+        mask = cap - 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(long key) {
+        if (key == EMPTY) {
+            return hasEmptyKey;
+        }
+        return keys[find(key)] == key;
+    }
+
+    /**
+     * Add a key to the set.
+     *
+     * @param key the key
+     * @return true if the key was added, false if it was already present
+     */
+    public boolean add(long key) {
+        if (key == EMPTY) {
+            if (hasEmptyKey) {
+                return false;
+            }
+            hasEmptyKey = true;
+            size++;
+            return true;
+        }
+        int i = find(key);
+        if (keys[i] == key) {
+            return false;
+        }
+        keys[i] = key;
+        if (++size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        return true;
+    }
+
+    /**
+     * Remove a key from the set.
+     *
+     * @param key the key
+     * @return true if the key was present
+     */
+    public boolean remove(long key) {
+        if (key == EMPTY) {
+            boolean had = hasEmptyKey;
+            if (had) {
+                hasEmptyKey = false;
+                size--;
+            }
+            return had;
+        }
+        int i = find(key);
+        if (keys[i] != key) {
+            return false;
+        }
+        size--;
+        // shift back any following entries which would otherwise become unreachable
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (keys[j] == EMPTY) {
+                break;
+            }
+            int home = mix(keys[j]) & mask;
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                keys[i] = keys[j];
+                i = j;
+            }
+        }
+        keys[i] = EMPTY;
+        return true;
+    }
+
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(keys, EMPTY);
+            size = 0;
+            hasEmptyKey = false;
+        }
+    }
+
+    /**
+     * Get the raw key array, for iteration.  Unused slots hold Long.MIN_VALUE, which is never a
+     * valid packed block position or chunk key.
+     *
+     * @return the key array
+     */
+    public long[] rawKeys() {
+        return keys;
+    }
+
+    private int find(long key) {
+        int i = mix(key) & mask;
+        while (keys[i] != EMPTY && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void rehash(int newCap) {
+        long[] oldKeys = keys;
+        keys = new long[newCap];
+        Arrays.fill(keys, EMPTY);
+        mask = newCap - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                keys[find(oldKeys[i])] = oldKeys[i];
+            }
+        }
+    }
+
+    private static int mix(long key) {
+        return LongIntHashMap.mix(key);
+    }
+}
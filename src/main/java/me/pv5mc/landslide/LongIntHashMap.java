@@ -0,0 +1,191 @@
+package me.pv5mc.landslide;
+
+/*
+This file is part of Landslide
+
+Landslide is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Landslide is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Landslide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+
+/**
+ * A minimal open-addressing hash map from long keys to int values, with no boxing.  Uses linear
+ * probing with backward-shift deletion, so there are no tombstones to clean up.
+ */
+public class LongIntHashMap {
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private boolean hasEmptyKey;
+    private int emptyKeyValue;
+
+    public LongIntHashMap() {
+        this(16);
+    }
+
+    public LongIntHashMap(int expected) {
+        int cap = Integer.highestOneBit(Math.max(expected, 8) * 2 - 1) << 1;
+        keys = new long[cap];
+        values = new int[cap];
+        Arrays.fill(keys, EMPTY);
+        mask = cap - 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(long key) {
+        if (key == EMPTY) {
+            return hasEmptyKey;
+        }
+        return keys[find(key)] == key;
+    }
+
+    public int get(long key, int def) {
+        if (key == EMPTY) {
+            return hasEmptyKey ? emptyKeyValue : def;
+        }
+        int i = find(key);
+        return keys[i] == key ? values[i] : def;
+    }
+
+    public void put(long key, int value) {
+        if (key == EMPTY) {
+            if (!hasEmptyKey) {
+                hasEmptyKey = true;
+                size++;
+            }
+            emptyKeyValue = value;
+            return;
+        }
+        int i = find(key);
+        if (keys[i] != key) {
+            keys[i] = key;
+            size++;
+            values[i] = value;
+            if (size * 2 > keys.length) {
+                rehash(keys.length * 2);
+            }
+        } else {
+            values[i] = value;
+        }
+    }
+
+    /**
+     * Add a delta to the value for the given key, treating a missing key as zero.  If the result
+     * is zero, the key is removed.
+     *
+     * @param key   the key
+     * @param delta amount to add
+     * @return the new value
+     */
+    public int addTo(long key, int delta) {
+        int val = get(key, 0) + delta;
+        if (val == 0) {
+            remove(key);
+        } else {
+            put(key, val);
+        }
+        return val;
+    }
+
+    public void remove(long key) {
+        if (key == EMPTY) {
+            if (hasEmptyKey) {
+                hasEmptyKey = false;
+                size--;
+            }
+            return;
+        }
+        int i = find(key);
+        if (keys[i] != key) {
+            return;
+        }
+        size--;
+        // shift back any following entries which would otherwise become unreachable
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (keys[j] == EMPTY) {
+                break;
+            }
+            int home = mix(keys[j]) & mask;
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        keys[i] = EMPTY;
+    }
+
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(keys, EMPTY);
+            size = 0;
+            hasEmptyKey = false;
+        }
+    }
+
+    /**
+     * Get the raw key array, for iteration.  Unused slots hold Long.MIN_VALUE, which is never a
+     * valid packed block position or chunk key.
+     *
+     * @return the key array
+     */
+    public long[] rawKeys() {
+        return keys;
+    }
+
+    public int rawValue(int slot) {
+        return values[slot];
+    }
+
+    private int find(long key) {
+        int i = mix(key) & mask;
+        while (keys[i] != EMPTY && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void rehash(int newCap) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[newCap];
+        values = new int[newCap];
+        Arrays.fill(keys, EMPTY);
+        mask = newCap - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int j = find(oldKeys[i]);
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+    static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,143 @@
+package me.pv5mc.landslide;
+
+/*
+This file is part of Landslide
+
+Landslide is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Landslide is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Landslide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+
+/**
+ * A minimal open-addressing hash map from long keys to object values, with no boxing of keys.
+ * Uses linear probing with backward-shift deletion, in the same way as {@link LongIntHashMap}.
+ * Long.MIN_VALUE may not be used as a key.
+ *
+ * @param <V> the value type
+ */
+public class LongObjectHashMap<V> {
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+
+    public LongObjectHashMap() {
+        this(16);
+    }
+
+    public LongObjectHashMap(int expected) {
+        int cap = Integer.highestOneBit(Math.max(expected, 8) * 2 - 1) << 1;
+        keys = new long[cap];
+        values = new Object[cap];
+        Arrays.fill(keys, EMPTY);
+        mask = cap - 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int i = find(key);
+        return keys[i] == key ? (V) values[i] : null;
+    }
+
+    public void put(long key, V value) {
+        int i = find(key);
+        values[i] = value;
+        if (keys[i] != key) {
+            keys[i] = key;
+            if (++size * 2 > keys.length) {
+                rehash(keys.length * 2);
+            }
+        }
+    }
+
+    public void remove(long key) {
+        int i = find(key);
+        if (keys[i] != key) {
+            return;
+        }
+        size--;
+        // shift back any following entries which would otherwise become unreachable
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (keys[j] == EMPTY) {
+                break;
+            }
+            int home = LongIntHashMap.mix(keys[j]) & mask;
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        keys[i] = EMPTY;
+        values[i] = null;
+    }
+
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(keys, EMPTY);
+            Arrays.fill(values, null);
+            size = 0;
+        }
+    }
+
+    /**
+     * Get the raw key array, for iteration.  Unused slots hold Long.MIN_VALUE.
+     *
+     * @return the key array
+     */
+    public long[] rawKeys() {
+        return keys;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V rawValue(int slot) {
+        return (V) values[slot];
+    }
+
+    private int find(long key) {
+        int i = LongIntHashMap.mix(key) & mask;
+        while (keys[i] != EMPTY && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void rehash(int newCap) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new long[newCap];
+        values = new Object[newCap];
+        Arrays.fill(keys, EMPTY);
+        mask = newCap - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int j = find(oldKeys[i]);
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package me.pv5mc.landslide;
+
+/*
+This file is part of Landslide
+
+Landslide is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Landslide is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Landslide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import org.bukkit.Material;
+
+/**
+ * Per-type-ID block properties, precomputed into a flat table so that checking them is a
+ * single array read.  The table is rebuilt (and republished) if the non-vanilla setting changes,
+ * so it may be read from any thread.
+ */
+public final class MaterialFlags {
+    public static final int SOLID = 0x1;
+    public static final int LIQUID = 0x2;
+    public static final int GRAVITY = 0x4;
+
+    // 175 is the highest vanilla block ID for MC 1.7.x
+    // TODO: looks like it will be 197 for MC 1.8
+    private static final int MAX_VANILLA_ID = 175;
+
+    private static volatile byte[] flags = build(false);
+
+    private MaterialFlags() {
+    }
+
+    /**
+     * Rebuild the table.  If non-vanilla support is enabled, we just treat anything that isn't a
+     * vanilla block as solid.
+     *
+     * @param nonVanilla true if non-vanilla blocks are to be treated as solid
+     */
+    public static void setNonVanilla(boolean nonVanilla) {
+        flags = build(nonVanilla);
+    }
+
+    public static boolean isSolid(int typeId) {
+        return (flags[typeId & 0xFFF] & SOLID) != 0;
+    }
+
+    public static boolean isLiquid(int typeId) {
+        return (flags[typeId & 0xFFF] & LIQUID) != 0;
+    }
+
+    public static boolean hasGravity(int typeId) {
+        return (flags[typeId & 0xFFF] & GRAVITY) != 0;
+    }
+
+    private static byte[] build(boolean nonVanilla) {
+        byte[] res = new byte[4096];
+        for (int id = 0; id < res.length; id++) {
+            Material mat = Material.getMaterial(id);
+            if (mat == null) {
+                // unknown block; safest to assume it's solid
+                res[id] = SOLID;
+                continue;
+            }
+            int f = 0;
+            if (mat.isSolid() || (nonVanilla && id > MAX_VANILLA_ID)) {
+                f |= SOLID;
+            }
+            switch (mat) {
+                case WATER:
+                case STATIONARY_WATER:
+                case LAVA:
+                case STATIONARY_LAVA:
+                    f |= LIQUID;
+                    break;
+                default:
+                    break;
+            }
+            if (mat.hasGravity()) {
+                f |= GRAVITY;
+            }
+            res[id] = (byte) f;
+        }
+        return res;
+    }
+}
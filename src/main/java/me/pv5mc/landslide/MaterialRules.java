@@ -0,0 +1,109 @@
+package me.pv5mc.landslide;
+
+/*
+This file is part of Landslide
+
+Landslide is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Landslide is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Landslide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import org.bukkit.material.MaterialData;
+
+import java.util.Map;
+
+/**
+ * One world's material rules (slide chance, drop chance and falling block transform), compiled
+ * into flat arrays indexed by (type ID &lt;&lt; 4 | data), so that a lookup is a single array read
+ * with no allocation.  Wildcard ("any data value") entries and the fallback to the default
+ * world's rules are resolved when the tables are built: later calls to the apply methods override
+ * earlier ones, and within each call wildcard entries are applied before exact ones.
+ */
+public class MaterialRules {
+    private static final int SIZE = 4096 * 16;
+
+    private final byte[] slideChances = new byte[SIZE];
+    private final byte[] dropChances = new byte[SIZE];
+    private final char[] transforms = new char[SIZE];
+
+    public MaterialRules() {
+        for (int i = 0; i < SIZE; i++) {
+            transforms[i] = (char) i;
+        }
+    }
+
+    public static int index(int typeId, int data) {
+        return ((typeId & 0xFFF) << 4) | (data & 0xF);
+    }
+
+    public int getSlideChance(int typeId, int data) {
+        return slideChances[index(typeId, data)];
+    }
+
+    public int getDropChance(int typeId, int data) {
+        return dropChances[index(typeId, data)];
+    }
+
+    /**
+     * Get the material a falling block should become.
+     *
+     * @param typeId block type ID
+     * @param data   block data
+     * @return the transformed type ID and data, packed as (type ID &lt;&lt; 4 | data)
+     */
+    public int getTransform(int typeId, int data) {
+        return transforms[index(typeId, data)];
+    }
+
+    public void applySlideChances(Map<MaterialData, Integer> chances) {
+        applyChances(slideChances, chances);
+    }
+
+    public void applyDropChances(Map<MaterialData, Integer> chances) {
+        applyChances(dropChances, chances);
+    }
+
+    public void applyTransforms(Map<MaterialData, MaterialData> mappings) {
+        for (int pass = 0; pass < 2; pass++) {
+            for (Map.Entry<MaterialData, MaterialData> e : mappings.entrySet()) {
+                MaterialData from = e.getKey();
+                MaterialData to = e.getValue();
+                char val = (char) index(to.getItemTypeId(), to.getData());
+                if (pass == 0 && from.getData() == (byte) -1) {
+                    int base = index(from.getItemTypeId(), 0);
+                    for (int d = 0; d < 16; d++) {
+                        transforms[base + d] = val;
+                    }
+                } else if (pass == 1 && from.getData() != (byte) -1) {
+                    transforms[index(from.getItemTypeId(), from.getData())] = val;
+                }
+            }
+        }
+    }
+
+    private static void applyChances(byte[] table, Map<MaterialData, Integer> chances) {
+        for (int pass = 0; pass < 2; pass++) {
+            for (Map.Entry<MaterialData, Integer> e : chances.entrySet()) {
+                MaterialData mat = e.getKey();
+                byte chance = (byte) Math.max(0, Math.min(100, e.getValue()));
+                if (pass == 0 && mat.getData() == (byte) -1) {
+                    int base = index(mat.getItemTypeId(), 0);
+                    for (int d = 0; d < 16; d++) {
+                        table[base + d] = chance;
+                    }
+                } else if (pass == 1 && mat.getData() != (byte) -1) {
+                    table[index(mat.getItemTypeId(), mat.getData())] = chance;
+                }
+            }
+        }
+    }
+}
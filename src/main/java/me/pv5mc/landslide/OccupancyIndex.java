@@ -0,0 +1,90 @@
+package me.pv5mc.landslide;
+
+/*
+This file is part of Landslide
+
+Landslide is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Landslide is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Landslide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+
+/**
+ * Records the source and target positions of every pending block move, per world, for as long
+ * as the move is scheduled.  Used to stop the same block being scheduled twice, and two blocks
+ * being scheduled to slide into the same space.
+ */
+public class OccupancyIndex {
+    private LongHashSet[] sources = new LongHashSet[4];
+    private LongHashSet[] targets = new LongHashSet[4];
+
+    public void registerWorld(int idx) {
+        if (idx >= sources.length) {
+            int cap = Math.max(idx + 1, sources.length * 2);
+            sources = Arrays.copyOf(sources, cap);
+            targets = Arrays.copyOf(targets, cap);
+        }
+        sources[idx] = new LongHashSet(64);
+        targets[idx] = new LongHashSet(64);
+    }
+
+    public void unregisterWorld(int idx) {
+        sources[idx] = null;
+        targets[idx] = null;
+    }
+
+    public boolean isSource(int idx, long pos) {
+        return sources[idx].contains(pos);
+    }
+
+    public boolean isTarget(int idx, long pos) {
+        return targets[idx].contains(pos);
+    }
+
+    /**
+     * Claim a source position for a move with no fixed target.
+     *
+     * @param idx    the world index
+     * @param source the packed source position
+     * @return true if the position was claimed, false if it is already pending
+     */
+    public boolean claim(int idx, long source) {
+        return sources[idx].add(source);
+    }
+
+    /**
+     * Claim a source and a target position.  Nothing is claimed if either is already taken.
+     *
+     * @param idx    the world index
+     * @param source the packed source position
+     * @param target the packed target position
+     * @return true if the positions were claimed
+     */
+    public boolean claim(int idx, long source, long target) {
+        if (sources[idx].contains(source) || targets[idx].contains(target)) {
+            return false;
+        }
+        sources[idx].add(source);
+        targets[idx].add(target);
+        return true;
+    }
+
+    public void release(int idx, long source) {
+        sources[idx].remove(source);
+    }
+
+    public void release(int idx, long source, long target) {
+        sources[idx].remove(source);
+        targets[idx].remove(target);
+    }
+}
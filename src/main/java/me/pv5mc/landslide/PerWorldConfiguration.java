@@ -7,6 +7,8 @@ import org.bukkit.material.MaterialData;
 
 import me.pv5mc.dhutils.Debugger;
 
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -21,7 +23,11 @@ public class PerWorldConfiguration {
     private final Map<String, WorldParams> worlds = new HashMap<String, PerWorldConfiguration.WorldParams>();
 
     private final LandslidePlugin plugin;
+    private final BitSet slideCandidates = new BitSet(4096);
     private WorldParams defaultWorld;
+    private WorldContext[] contexts = new WorldContext[4];
+    private WorldContext lastContext;
+    private int generation;
 
     public PerWorldConfiguration(LandslidePlugin plugin) {
         this.plugin = plugin;
@@ -41,6 +47,9 @@ public class PerWorldConfiguration {
         }
         defaultWorld = worlds.get(WORLD_DEFAULTS);
         defaultWorld.sanityCheck();
+        rebuildSlideCandidates();
+        invalidateMaterialRules();
+        generation++;
     }
 
     public void processKey(Configuration conf, String fullKey) {
@@ -57,6 +66,8 @@ public class PerWorldConfiguration {
             subKey = parts.length >= 2 ? parts[1] : null;
         }
         Debugger.getInstance().debug("process key [" + fullKey + "]: world=" + worldName + ", key=" + key + ", val=" + conf.get(fullKey));
+        // any change may affect any world's resolved settings
+        generation++;
         if (!conf.contains(fullKey)) {
             // config key has been deleted; re-read everything and reconstruct the cached config
             // this is not the most efficient way, but should be pretty safe
@@ -67,12 +78,17 @@ public class PerWorldConfiguration {
             getWorldParams(worldName).setCliffStability(conf.getInt(fullKey));
         } else if (key.equals("slide_chance")) {
             getWorldParams(worldName).setSlideChance(subKey, conf.getInt(fullKey));
+            rebuildSlideCandidates();
+            invalidateMaterialRules();
         } else if (key.equals("drop_chance")) {
             getWorldParams(worldName).setDropChance(subKey, conf.getInt(fullKey));
+            rebuildSlideCandidates();
+            invalidateMaterialRules();
         } else if (key.equals("drop_items")) {
             getWorldParams(worldName).setDropItems(conf.getBoolean(fullKey));
         } else if (key.equals("transform")) {
             getWorldParams(worldName).setTransform(subKey, conf.getString(fullKey));
+            invalidateMaterialRules();
         } else if (key.equals("falling_block_damage")) {
             getWorldParams(worldName).setFallingBlockDamage(conf.getInt(fullKey));
         } else if (key.equals("explode_effect_chance")) {
@@ -107,72 +123,200 @@ public class PerWorldConfiguration {
         return worlds.get(worldName);
     }
 
+    /**
+     * Get the context for the given world, which holds the world's settings with the defaults
+     * already merged in.  Contexts are found by world identity, so this is cheap enough to call
+     * once per event; callers needing several settings should fetch the context once and keep it
+     * for the rest of the event.  A context is created on demand if the world has not been seen
+     * before.
+     *
+     * @param world the world
+     * @return the world's context
+     */
+    public WorldContext getContext(World world) {
+        WorldContext ctx = lastContext;
+        if (ctx == null || ctx.getWorld() != world) {
+            ctx = worldLoaded(world);
+            lastContext = ctx;
+        }
+        if (ctx.generation != generation) {
+            // worlds with no settings of their own use the defaults, without being added to the map
+            WorldParams params = worlds.get(world.getName());
+            (params == null ? defaultWorld : params).resolve(ctx);
+            ctx.generation = generation;
+        }
+        return ctx;
+    }
+
+    /**
+     * Create the context for a newly-loaded world.  Does nothing if the world already has one.
+     *
+     * @param world the world
+     * @return the world's context
+     */
+    public WorldContext worldLoaded(World world) {
+        int free = -1;
+        for (int i = 0; i < contexts.length; i++) {
+            if (contexts[i] == null) {
+                if (free < 0) {
+                    free = i;
+                }
+            } else if (contexts[i].getWorld() == world) {
+                return contexts[i];
+            }
+        }
+        if (free < 0) {
+            free = contexts.length;
+            contexts = Arrays.copyOf(contexts, contexts.length * 2);
+        }
+        contexts[free] = new WorldContext(world, free);
+        Debugger.getInstance().debug("created context #" + free + " for world " + world.getName());
+        return contexts[free];
+    }
+
+    /**
+     * Release the context for a world which is being unloaded.  The context's index may be reused
+     * by a world loaded later.
+     *
+     * @param world the world
+     * @return the released context, or null if the world had none
+     */
+    public WorldContext worldUnloaded(World world) {
+        for (int i = 0; i < contexts.length; i++) {
+            if (contexts[i] != null && contexts[i].getWorld() == world) {
+                WorldContext ctx = contexts[i];
+                contexts[i] = null;
+                if (lastContext == ctx) {
+                    lastContext = null;
+                }
+                Debugger.getInstance().debug("released context #" + i + " for world " + world.getName());
+                return ctx;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Quick check to see if a block of the given type could ever slide or drop, in any world.
+     * Anything which fails this check can be ignored without further ado.
+     *
+     * @param typeId the block's type ID
+     * @return true if the block needs a closer look
+     */
+    public boolean isSlideCandidate(int typeId) {
+        return plugin.getSnapshot().isDropNonSlidyFloaters() || slideCandidates.get(typeId);
+    }
+
+    private void invalidateMaterialRules() {
+        for (WorldParams params : worlds.values()) {
+            params.materialRules = null;
+        }
+    }
+
+    private void rebuildSlideCandidates() {
+        slideCandidates.clear();
+        for (WorldParams params : worlds.values()) {
+            params.addSlideCandidates(slideCandidates);
+        }
+    }
+
     public boolean isEnabled(World world) {
-        return getWorldParams(world.getName()).isEnabled();
+        return getContext(world).isEnabled();
     }
 
     public int getCliffStability(World world) {
-        return getWorldParams(world.getName()).getCliffStability();
+        return getContext(world).getCliffStability();
     }
 
     public int getSlideChance(World world, MaterialData mat) {
-        return getWorldParams(world.getName()).getSlideChance(mat);
+        return getSlideChance(world, mat.getItemTypeId(), mat.getData());
+    }
+
+    public int getSlideChance(World world, int typeId, byte data) {
+        return getContext(world).getSlideChance(typeId, data);
     }
 
     public int getDropChance(World world, MaterialData mat) {
-        return getWorldParams(world.getName()).getDropChance(mat);
+        return getDropChance(world, mat.getItemTypeId(), mat.getData());
+    }
+
+    public int getDropChance(World world, int typeId, byte data) {
+        return getContext(world).getDropChance(typeId, data);
+    }
+
+    /**
+     * Get the compiled material rules for the given world.
+     *
+     * @param world the world
+     * @return the world's material rules
+     */
+    public MaterialRules getMaterialRules(World world) {
+        return getContext(world).getMaterialRules();
     }
 
     public boolean getDropItems(World world) {
-        return getWorldParams(world.getName()).getDropItems();
+        return getContext(world).getDropItems();
     }
 
     public MaterialData getTransform(World world, MaterialData mat) {
-        return getWorldParams(world.getName()).getTransform(mat);
+        int res = getTransform(world, mat.getItemTypeId(), mat.getData());
+        return new MaterialData(res >> 4, (byte) (res & 0xF));
+    }
+
+    /**
+     * Get the material that a falling block of the given type should become.
+     *
+     * @param world  the world
+     * @param typeId block type ID
+     * @param data   block data
+     * @return the transformed type ID and data, packed as (type ID &lt;&lt; 4 | data)
+     */
+    public int getTransform(World world, int typeId, byte data) {
+        return getContext(world).getTransform(typeId, data);
     }
 
     public int getExplodeEffectChance(World world) {
-        return getWorldParams(world.getName()).getExplodeEffectChance();
+        return getContext(world).getExplodeEffectChance();
     }
 
     public boolean getFallingBlocksBounce(World world) {
-        return getWorldParams(world.getName()).getFallingBlocksBounce();
+        return getContext(world).getFallingBlocksBounce();
     }
 
     public int getFallingBlockDamage(World world) {
-        return getWorldParams(world.getName()).getFallingBlockDamage();
+        return getContext(world).getFallingBlockDamage();
     }
 
     public boolean getHorizontalSlides(World world) {
-        return getWorldParams(world.getName()).getHorizontalSlides();
+        return getContext(world).getHorizontalSlides();
     }
 
     public int getSnowFormChance(World world) {
-        return getWorldParams(world.getName()).getSnowFormChance();
+        return getContext(world).getSnowFormChance();
     }
 
     public int getSnowMeltChance(World world) {
-        return getWorldParams(world.getName()).getSnowMeltChance();
+        return getContext(world).getSnowMeltChance();
     }
 
     public int getSnowFormRate(World world) {
-        return getWorldParams(world.getName()).getSnowFormRate();
+        return getContext(world).getSnowFormRate();
     }
 
     public int getSnowMeltRate(World world) {
-        return getWorldParams(world.getName()).getSnowMeltRate();
+        return getContext(world).getSnowMeltRate();
     }
 
     public int getSnowSlideThickness(World world) {
-        return getWorldParams(world.getName()).getSnowSlideThickness();
+        return getContext(world).getSnowSlideThickness();
     }
 
     public boolean getOnlyWhenRaining(World world) {
-        return getWorldParams(world.getName()).getOnlyWhenRaining();
+        return getContext(world).getOnlyWhenRaining();
     }
 
     public boolean getSlideIntoLiquid(World world) {
-        return getWorldParams(world.getName()).getSlideIntoLiquid();
+        return getContext(world).getSlideIntoLiquid();
     }
 
     private class WorldParams {
@@ -193,6 +337,7 @@ public class PerWorldConfiguration {
         private Boolean slideIntoLiquid = null;
         private Integer snowFormRate = null;
         private Integer snowMeltRate = null;
+        private MaterialRules materialRules = null;
 
         private WorldParams() {
         }
@@ -228,14 +373,49 @@ public class PerWorldConfiguration {
             transforms.add(s1, s2);
         }
 
-        public MaterialData getTransform(MaterialData mat) {
-            MaterialData res = transforms.get(mat);
-            return res == null ? defaultWorld.getTransform(mat, mat) : res;
-        }
-
-        private MaterialData getTransform(MaterialData mat, MaterialData def) {
-            MaterialData res = transforms.get(mat);
-            return res == null ? def : res;
+        /**
+         * Copy this world's effective settings into the given context.
+         *
+         * @param ctx the context to update
+         */
+        private void resolve(WorldContext ctx) {
+            ctx.enabled = isEnabled();
+            ctx.cliffStability = getCliffStability();
+            ctx.dropItems = getDropItems();
+            ctx.explodeEffectChance = getExplodeEffectChance();
+            ctx.fallingBlocksBounce = getFallingBlocksBounce();
+            ctx.fallingBlockDamage = getFallingBlockDamage();
+            ctx.horizontalSlides = getHorizontalSlides();
+            ctx.onlyWhenRaining = getOnlyWhenRaining();
+            ctx.slideIntoLiquid = getSlideIntoLiquid();
+            ctx.snowFormChance = getSnowFormChance();
+            ctx.snowMeltChance = getSnowMeltChance();
+            ctx.snowFormRate = getSnowFormRate();
+            ctx.snowMeltRate = getSnowMeltRate();
+            ctx.snowSlideThickness = getSnowSlideThickness();
+            ctx.materialRules = getMaterialRules();
+        }
+
+        private MaterialRules getMaterialRules() {
+            if (materialRules == null && this != defaultWorld
+                    && slideChances.isEmpty() && dropChances.isEmpty() && transforms.getMappings().isEmpty()) {
+                // nothing of our own to add; share the default world's tables
+                return defaultWorld.getMaterialRules();
+            }
+            if (materialRules == null) {
+                // this world's settings take precedence over the defaults, so apply them last
+                MaterialRules rules = new MaterialRules();
+                if (this != defaultWorld) {
+                    rules.applySlideChances(defaultWorld.slideChances);
+                    rules.applyDropChances(defaultWorld.dropChances);
+                    rules.applyTransforms(defaultWorld.transforms.getMappings());
+                }
+                rules.applySlideChances(slideChances);
+                rules.applyDropChances(dropChances);
+                rules.applyTransforms(transforms.getMappings());
+                materialRules = rules;
+            }
+            return materialRules;
         }
 
         public void setDropItems(boolean dropItems) {
@@ -262,21 +442,17 @@ public class PerWorldConfiguration {
             return cliffStability == null ? defaultWorld.getCliffStability() : cliffStability;
         }
 
-        public int getSlideChance(MaterialData mat) {
-            return getSlideChance(mat, null);
-        }
-
-        private int getSlideChance(MaterialData mat, Integer def) {
-            Integer chance = slideChances.get(mat);
-            if (chance != null) {
-                return chance;
+        private void addSlideCandidates(BitSet bits) {
+            for (Map.Entry<MaterialData, Integer> e : slideChances.entrySet()) {
+                if (e.getValue() > 0) {
+                    bits.set(e.getKey().getItemTypeId());
+                }
             }
-            MaterialData wildMat = new MaterialData(mat.getItemType(), (byte) -1);
-            chance = slideChances.get(wildMat);
-            if (chance != null) {
-                return chance;
+            for (Map.Entry<MaterialData, Integer> e : dropChances.entrySet()) {
+                if (e.getValue() > 0) {
+                    bits.set(e.getKey().getItemTypeId());
+                }
             }
-            return def == null ? defaultWorld.getSlideChance(mat, 0) : def;
         }
 
         public void setSlideChance(String matName, int chance) {
@@ -286,23 +462,6 @@ public class PerWorldConfiguration {
             }
         }
 
-        public int getDropChance(MaterialData mat) {
-            return getDropChance(mat, null);
-        }
-
-        private int getDropChance(MaterialData mat, Integer def) {
-            Integer chance = dropChances.get(mat);
-            if (chance != null) {
-                return chance;
-            }
-            MaterialData wildMat = new MaterialData(mat.getItemType(), (byte) -1);
-            chance = dropChances.get(wildMat);
-            if (chance != null) {
-                return chance;
-            }
-            return def == null ? defaultWorld.getDropChance(mat, 0) : def;
-        }
-
         public void setDropChance(String matName, int chance) {
             MaterialData mat = LandslidePlugin.parseMaterialData(matName);
             if (mat != null) {
@@ -17,197 +17,521 @@ You should have received a copy of the GNU General Public License
 along with Landslide.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-import com.sk89q.worldguard.bukkit.WGBukkit;
 import com.sk89q.worldguard.protection.flags.DefaultFlag;
 import com.sk89q.worldguard.protection.flags.Flag;
 import com.sk89q.worldguard.protection.flags.StateFlag;
 
 import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
 import org.bukkit.Location;
 import org.bukkit.Material;
+import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
 import org.bukkit.entity.FallingBlock;
-import org.bukkit.material.MaterialData;
-import org.bukkit.material.PistonBaseMaterial;
-import org.bukkit.material.PistonExtensionMaterial;
 import org.bukkit.util.Vector;
 
 import me.pv5mc.dhutils.Debugger;
 import me.pv5mc.dhutils.LogUtils;
-import me.pv5mc.dhutils.cuboid.Cuboid;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
 public class SlideManager {
-    private static final int RING_BUFFER_SIZE = 30;
     private static final int MAX_SLIDE_DELAY = 12;
 
-    private static final Block[] neighbours = new Block[BlockFace.values().length];
+    // layout of the packed info word stored for each scheduled operation
+    private static final int KIND_SLIDE = 0;
+    private static final int KIND_FLING = 1;
+    private static final int DATA_MASK = 0xF;
+    private static final int MATERIAL_SHIFT = 4;
+    private static final int MATERIAL_MASK = 0xFFF;
+    private static final int FACE_SHIFT = 16;
+    private static final int FACE_MASK = 0x1F;
+    private static final int IMMEDIATE_BIT = 1 << 21;
+    // flings are never immediate; for them, the bit means the block has been removed already
+    private static final int CLEARED_BIT = IMMEDIATE_BIT;
+    private static final int KIND_SHIFT = 22;
+    private static final int KIND_MASK = 0x3;
+
+    // how often to purge the falling block registry of entities which never landed
+    private static final int EXPIRE_INTERVAL_MASK = 0x7F;
+
+    private static final BlockFace[] faces = BlockFace.values();
 
     private final LandslidePlugin plugin;
-    private final Set<Location> slideTo = new HashSet<Location>();
-    private final List<ScheduledBlockMove>[] slides;
-    private final List<Drop>[] drops;
-    private final Set<Material> bracingMaterials = new HashSet<Material>();
-
-    private int pointer;
-    private int totalSlidesScheduled;
-    private int maxSlidesPerTick;
-    private int maxSlidesTotal;
-    private Boolean worldGuardEnabled;
+    private final TimingWheel slides = new TimingWheel(256);
+    private final TimingWheel drops = new TimingWheel(64);
+    private World[] worldTable = new World[4];
+    private final SlideQuotas quotas = new SlideQuotas();
+    private final OccupancyIndex occupancy = new OccupancyIndex();
+    private final FallingBlockRegistry fallingBlocks = new FallingBlockRegistry();
+    private final List<DescentPath> descents = new ArrayList<DescentPath>();
+    private final BlockChangeBatch changes = new BlockChangeBatch();
+    private final BlockChangeBatch.NeighbourCheck neighbourCheck;
+    private final LiveBlockSource liveSource = new LiveBlockSource(changes);
+    private final BlockAccess neighbourhood = new BlockAccess();
+    private final BracingField bracingField = new BracingField();
+    private final BlockFace[] possibles = new BlockFace[LandslidePlugin.horizontalFaces.length];
+
+    // smoothed time taken by the work at the end of each tick
+    private long trailingNanos;
+    // quota reservations held by the hops of descent paths in progress
+    private int heldHops;
+    // slides which have passed their checks but are waiting on a batch event
+    private int reservedSlides;
     private StateFlag wgFlag;
-    private boolean stickyPistonsRetracted;
-    private boolean stickyPistonsExtended;
-    private int bracingDistance;
-    private boolean fullBracingScan;
-    private static boolean nonVanilla;
+    private String wgFlagName;
+    private volatile SlideRules rules;
+    // the snapshot the current rules were built from
+    private ConfigSnapshot rulesConfig;
 
-    public interface ScheduledBlockMove {
-        public FallingBlock initiateMove();
-    }
-
-    @SuppressWarnings("unchecked")
     public SlideManager(LandslidePlugin plugin) {
         this.plugin = plugin;
-        slides = new ArrayList[RING_BUFFER_SIZE];
-        for (int i = 0; i < RING_BUFFER_SIZE; i++) {
-            slides[i] = new ArrayList<ScheduledBlockMove>();
-        }
-        drops = new ArrayList[RING_BUFFER_SIZE];
-        for (int i = 0; i < RING_BUFFER_SIZE; i++) {
-            drops[i] = new ArrayList<SlideManager.Drop>();
-        }
-        pointer = 0;
-        totalSlidesScheduled = 0;
-        worldGuardEnabled = false;
+        this.neighbourCheck = new BlockChangeBatch.NeighbourCheck() {
+            @Override
+            public void check(Block block) {
+                // deferred checks, when enabled, are made within their own time budget
+                SlideManager.this.plugin.getEventListener().checkOrDefer(block);
+            }
+        };
         wgFlag = null;
+        rules = new SlideRules(new HashSet<Material>(), 0, false, false, false);
+        bracingField.setRules(rules);
     }
 
     public void tick() {
-        slideTo.clear();
-
-        if (slides[pointer].size() > 0) {
-            Debugger.getInstance().debug(2, "pointer = " + pointer + " - " + slides[pointer].size() + " blocks to slide");
+        slides.advance();
+        drops.advance();
+
+        if (slides.readySize() > 0) {
+            Debugger.getInstance().debug(2, "tick " + slides.getCurrentTick() + " - " + slides.readySize() + " blocks ready to slide");
+        }
+        // anything over the per-tick limit or time budget stays on the ready queue for the next tick
+        TickBudget budget = plugin.getTickBudget();
+        if (plugin.getSnapshot().isAdaptiveBudgetEnabled()) {
+            long start = System.nanoTime();
+            // leave room for the steering, drops and block writes which follow, going by recent ticks
+            do {
+                int h = slides.poll();
+                if (h == TimingWheel.NIL) {
+                    break;
+                }
+                runScheduledMove(h);
+            } while (budget.hasTimeLeft(start, trailingNanos));
+            if (slides.readySize() > 0) {
+                Debugger.getInstance().debug(2, "slide budget " + budget.getBudgetNanos() / 1000 + "us used up, carrying over " + slides.readySize());
+            }
+        } else {
+            // flings don't count towards max_slides_per_tick
+            int max = getMaxSlidesPerTick();
+            for (int n = 0; n < max; ) {
+                int h = slides.poll();
+                if (h == TimingWheel.NIL) {
+                    break;
+                }
+                if (((slides.getInfo(h) >> KIND_SHIFT) & KIND_MASK) != KIND_FLING) {
+                    n++;
+                }
+                runScheduledMove(h);
+            }
+        }
+        long trailingStart = System.nanoTime();
+        tickDescents();
+        for (int h = drops.poll(); h != TimingWheel.NIL; h = drops.poll()) {
+            alignForDrop((FallingBlock) drops.getRef(h));
+            drops.release(h);
         }
-        for (ScheduledBlockMove slide : new ArrayList<ScheduledBlockMove>(slides[pointer])) {
-            slide.initiateMove();
+
+        // write this tick's block removals in one pass, chunk by chunk
+        if (!changes.isEmpty()) {
+            changes.apply(neighbourCheck);
         }
-        for (Drop drop : new ArrayList<Drop>(drops[pointer])) {
-            alignForDrop(drop);
+        bracingField.flush();
+        trailingNanos += (System.nanoTime() - trailingStart - trailingNanos) / 8;
+        if ((slides.getCurrentTick() & EXPIRE_INTERVAL_MASK) == 0) {
+            fallingBlocks.expire(slides.getCurrentTick());
         }
-        totalSlidesScheduled -= slides[pointer].size();
-        slides[pointer].clear();
-        drops[pointer].clear();
-        pointer = (pointer + 1) % RING_BUFFER_SIZE;
     }
 
     public boolean scheduleBlockSlide(Block block, BlockFace direction, Material mat, byte data, boolean immediate) {
+        return scheduleBlockSlide(block, direction, mat, data, immediate, 0);
+    }
+
+    /**
+     * Schedule a block to slide as part of an existing avalanche.
+     *
+     * @param block     the block
+     * @param direction the direction to slide in
+     * @param mat       the block's material
+     * @param data      the block's data
+     * @param immediate true to slide on the next tick, rather than after a random delay
+     * @param tag       the avalanche tag, see {@link FallingBlockRegistry#tag(int, int)}; 0 starts a new avalanche
+     * @return true if the slide was scheduled
+     */
+    public boolean scheduleBlockSlide(Block block, BlockFace direction, Material mat, byte data, boolean immediate, int tag) {
         Debugger.getInstance().debug(2, "Schedule slide: " + block + " dir=" + direction + " immediate=" + immediate);
-        if (totalSlidesScheduled >= getMaxSlidesTotal() || getMaxSlidesPerTick() <= 0) {
+        int worldIdx = getWorldIndex(block.getWorld());
+        if (!reserveSlide(worldIdx, block, direction)) {
+            return false;
+        }
+        if (!callSlideEvent(block, direction)) {
+            unreserveSlide(worldIdx, block, direction);
+            return false;
+        }
+        commitSlide(worldIdx, block, direction, mat, data, immediate, tag);
+        return true;
+    }
+
+    /**
+     * Check that a block may slide (the slide limits and quotas have room for it, nothing else is
+     * moving into its way, and WorldGuard allows it) and if so, take its quota and claim its
+     * space.  The reservation must then be either committed or undone.
+     */
+    private boolean reserveSlide(int worldIdx, Block block, BlockFace direction) {
+        if (getMaxSlidesPerTick() <= 0 || !quotas.isEnabled() && getPendingTotal() >= getMaxSlidesTotal()) {
+            return false;
+        }
+        long pos = BlockPos.pack(block);
+        long target = BlockPos.offset(pos, direction.getModX(), direction.getModY(), direction.getModZ());
+        if (occupancy.isSource(worldIdx, pos) || occupancy.isTarget(worldIdx, target)) {
+            // already on its way, or something else is already heading for the same space
             return false;
         }
         if (isProtectedByWG(block)) {
             return false;
         }
-        BlockSlideEvent event = new BlockSlideEvent(block, direction);
-        Bukkit.getPluginManager().callEvent(event);
-        if (event.isCancelled()) {
+        if (!quotas.tryAcquire(worldIdx, BlockPos.chunkKey(pos), getMaxSlidesTotal(), getPendingTotal())) {
+            Debugger.getInstance().debug(2, "slide quota exhausted for " + block);
             return false;
         }
+        occupancy.claim(worldIdx, pos, target);
+        reservedSlides++;
+        return true;
+    }
 
-        Slide slide = new Slide(block.getLocation(), direction, mat, data, immediate);
+    private void unreserveSlide(int worldIdx, Block block, BlockFace direction) {
+        long pos = BlockPos.pack(block);
+        quotas.release(worldIdx, BlockPos.chunkKey(pos));
+        occupancy.release(worldIdx, pos, BlockPos.offset(pos, direction.getModX(), direction.getModY(), direction.getModZ()));
+        reservedSlides--;
+    }
+
+    private void commitSlide(int worldIdx, Block block, BlockFace direction, Material mat, byte data, boolean immediate, int tag) {
         int delay = immediate ? 1 : plugin.getRandom().nextInt(MAX_SLIDE_DELAY);
+        int info = packInfo(KIND_SLIDE, mat.getId(), data, direction, immediate);
+        int h = slides.add(delay, BlockPos.pack(block), info, worldIdx);
+        slides.setTag(h, tag == 0 ? FallingBlockRegistry.tag(fallingBlocks.newAvalanche(), 0) : tag);
+        reservedSlides--;
+    }
 
-        if (scheduleOperation(slide, delay)) {
-            slideTo.add(block.getRelative(direction).getLocation());
-            return true;
-        } else {
-            return false;
+    private boolean callSlideEvent(Block block, BlockFace direction) {
+        if (BlockSlideEvent.getHandlerList().getRegisteredListeners().length > 0) {
+            BlockSlideEvent event = new BlockSlideEvent(block, direction);
+            Bukkit.getPluginManager().callEvent(event);
+            return !event.isCancelled();
         }
+        return true;
+    }
+
+    private int getPendingTotal() {
+        return slides.size() + heldHops + reservedSlides;
+    }
+
+    /**
+     * Check if a block is already scheduled to slide or be flung.
+     *
+     * @param block the block
+     * @return true if the block is on its way
+     */
+    public boolean isMoving(Block block) {
+        return occupancy.isSource(getWorldIndex(block.getWorld()), BlockPos.pack(block));
     }
 
     public boolean scheduleBlockSlide(Block block, BlockFace direction) {
         return scheduleBlockSlide(block, direction, block.getType(), block.getData(), false);
     }
 
+    /**
+     * Schedule a group of blocks to slide.  The blocks which pass the usual checks are then
+     * offered in a single {@link BlockSlideBatchEvent} (if anything is listening for it), and
+     * then the usual {@link BlockSlideEvent} for each block which the batch event didn't veto.
+     *
+     * @param world      the world
+     * @param blocks     the blocks to slide
+     * @param directions the direction for each block
+     * @return the number of blocks actually scheduled
+     */
+    public int scheduleBlockSlides(World world, List<Block> blocks, List<BlockFace> directions) {
+        int worldIdx = getWorldIndex(world);
+        List<Block> accepted = new ArrayList<Block>(blocks.size());
+        List<BlockFace> acceptedDirs = new ArrayList<BlockFace>(blocks.size());
+        for (int i = 0; i < blocks.size(); i++) {
+            if (reserveSlide(worldIdx, blocks.get(i), directions.get(i))) {
+                accepted.add(blocks.get(i));
+                acceptedDirs.add(directions.get(i));
+            }
+        }
+        BlockSlideBatchEvent batch = callBatchEvent(world, accepted, acceptedDirs, BlockSlideBatchEvent.Cause.MASS_SLIDE);
+        int n = 0;
+        int tag = FallingBlockRegistry.tag(fallingBlocks.newAvalanche(), 0);
+        for (int i = 0; i < accepted.size(); i++) {
+            Block b = accepted.get(i);
+            BlockFace face = acceptedDirs.get(i);
+            if (batch != null && batch.isVetoed(i) || !callSlideEvent(b, face)) {
+                unreserveSlide(worldIdx, b, face);
+            } else {
+                commitSlide(worldIdx, b, face, b.getType(), b.getData(), false, tag);
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Fire a {@link BlockSlideBatchEvent}, but only if something is listening for it.
+     *
+     * @param world      the world
+     * @param blocks     the blocks
+     * @param directions the direction for each block, or null if the blocks are being flung
+     * @param cause      why the blocks are moving
+     * @return the event after it has been fired, or null if there are no listeners
+     */
+    public BlockSlideBatchEvent callBatchEvent(World world, List<Block> blocks, List<BlockFace> directions, BlockSlideBatchEvent.Cause cause) {
+        if (blocks.isEmpty() || BlockSlideBatchEvent.getHandlerList().getRegisteredListeners().length == 0) {
+            return null;
+        }
+        BlockSlideBatchEvent batch = new BlockSlideBatchEvent(world, blocks, directions, cause);
+        Bukkit.getPluginManager().callEvent(batch);
+        return batch;
+    }
+
     public boolean scheduleBlockFling(Block block, Vector vec, Vector offset) {
-        int delay = plugin.getRandom().nextInt(MAX_SLIDE_DELAY);
-        Vector offset2 = offset.clone().multiply(0.5);
-        Fling fling = new Fling(block, block.getLocation().add(offset), vec.add(offset2));
-        if (scheduleOperation(fling, delay)) {
-            Debugger.getInstance().debug("scheduled fling: " + block.getLocation() + " -> " + vec);
-            return true;
-        } else {
+        return scheduleBlockFling(block, vec, offset, 0);
+    }
+
+    /**
+     * Schedule a block to be flung, as part of an existing avalanche.
+     *
+     * @param block  the block
+     * @param vec    the initial velocity
+     * @param offset offset from the block's position at which to spawn the falling block
+     * @param tag    the avalanche tag, see {@link FallingBlockRegistry#tag(int, int)}; 0 starts a new avalanche
+     * @return true if the fling was scheduled
+     */
+    public boolean scheduleBlockFling(Block block, Vector vec, Vector offset, int tag) {
+        return scheduleBlockFling(block, vec.getX(), vec.getY(), vec.getZ(), offset.getX(), offset.getY(), offset.getZ(), tag, false);
+    }
+
+    /**
+     * Schedule a block to be flung, without needing any Vector objects.
+     *
+     * @param block the block
+     * @param vx    initial velocity X
+     * @param vy    initial velocity Y
+     * @param vz    initial velocity Z
+     * @param ox    spawn offset X; half of the offset is also added to the velocity
+     * @param oy    spawn offset Y
+     * @param oz    spawn offset Z
+     * @param tag   the avalanche tag, see {@link FallingBlockRegistry#tag(int, int)}; 0 starts a new avalanche
+     * @param clear true to remove the block now, along with this tick's other block changes,
+     *              rather than when it is flung
+     * @return true if the fling was scheduled
+     */
+    public boolean scheduleBlockFling(Block block, double vx, double vy, double vz, double ox, double oy, double oz, int tag, boolean clear) {
+        long pos = BlockPos.pack(block);
+        int worldIdx = getWorldIndex(block.getWorld());
+        if (occupancy.isSource(worldIdx, pos)) {
             return false;
         }
+        // flings aren't limited by max_slides_total or the quotas, but still count towards them
+        quotas.acquire(worldIdx, BlockPos.chunkKey(pos));
+        occupancy.claim(worldIdx, pos);
+        int delay = plugin.getRandom().nextInt(MAX_SLIDE_DELAY);
+        int info = packInfo(KIND_FLING, block.getTypeId(), block.getData(), BlockFace.SELF, clear);
+        if (clear) {
+            blockChanged(block, block.getTypeId());
+            changes.add(block.getWorld(), pos, 0, (byte) 0);
+        }
+        int h = slides.add(delay, pos, info, worldIdx);
+        slides.setTag(h, tag == 0 ? FallingBlockRegistry.tag(fallingBlocks.newAvalanche(), 0) : tag);
+        slides.setVector(h, 0, ox);
+        slides.setVector(h, 1, oy);
+        slides.setVector(h, 2, oz);
+        slides.setVector(h, 3, vx + ox * 0.5);
+        slides.setVector(h, 4, vy + oy * 0.5);
+        slides.setVector(h, 5, vz + oz * 0.5);
+        return true;
+    }
+
+    private static int packInfo(int kind, int materialId, byte data, BlockFace face, boolean immediate) {
+        return (kind << KIND_SHIFT) | (immediate ? IMMEDIATE_BIT : 0) | (face.ordinal() << FACE_SHIFT)
+                | ((materialId & MATERIAL_MASK) << MATERIAL_SHIFT) | (data & DATA_MASK);
+    }
+
+    private int getWorldIndex(World world) {
+        int idx = plugin.getPerWorldConfig().getContext(world).getIndex();
+        if (idx >= worldTable.length) {
+            worldTable = Arrays.copyOf(worldTable, Math.max(idx + 1, worldTable.length * 2));
+        }
+        if (worldTable[idx] != world) {
+            worldTable[idx] = world;
+            quotas.registerWorld(idx, world.getName());
+            occupancy.registerWorld(idx);
+            bracingField.registerWorld(idx, world);
+        }
+        return idx;
     }
 
-    private boolean scheduleOperation(ScheduledBlockMove operation, int delay) {
-        int idx = (pointer + delay) % RING_BUFFER_SIZE;
-        int n = 0;
-        while (slides[idx].size() >= getMaxSlidesPerTick()) {
-            idx = (idx + 1) % RING_BUFFER_SIZE;
-            if (n++ >= RING_BUFFER_SIZE) {
-                return false;
+    /**
+     * Discard everything held for a world which is being unloaded, including any slides still
+     * pending there, so that its index can be handed to another world.
+     *
+     * @param ctx the world's (released) context
+     */
+    public void worldUnloaded(WorldContext ctx) {
+        int idx = ctx.getIndex();
+        if (idx >= worldTable.length || worldTable[idx] != ctx.getWorld()) {
+            return;
+        }
+        int removed = slides.removeWorld(idx);
+        for (int i = descents.size() - 1; i >= 0; i--) {
+            DescentPath path = descents.get(i);
+            if (path.getWorldIndex() == idx) {
+                // the world's quota counts are going anyway
+                heldHops -= path.getHopsHeld();
+                int last = descents.size() - 1;
+                descents.set(i, descents.get(last));
+                descents.remove(last);
             }
         }
-        slides[idx].add(operation);
-        totalSlidesScheduled++;
-        return true;
+        quotas.unregisterWorld(idx);
+        occupancy.unregisterWorld(idx);
+        bracingField.unregisterWorld(idx);
+        fallingBlocks.removeWorld(idx);
+        worldTable[idx] = null;
+        Debugger.getInstance().debug("world " + ctx.getWorld().getName() + " unloaded: discarded " + removed + " pending slides");
+    }
+
+    private void runScheduledMove(int h) {
+        int worldIdx = slides.getWorld(h);
+        long pos = slides.getPos(h);
+        int info = slides.getInfo(h);
+        quotas.release(worldIdx, BlockPos.chunkKey(pos));
+        if (((info >> KIND_SHIFT) & KIND_MASK) == KIND_FLING) {
+            occupancy.release(worldIdx, pos);
+        } else {
+            BlockFace direction = faces[(info >> FACE_SHIFT) & FACE_MASK];
+            occupancy.release(worldIdx, pos, BlockPos.offset(pos, direction.getModX(), direction.getModY(), direction.getModZ()));
+        }
+        initiateMove(h);
+        slides.release(h);
+    }
+
+    private FallingBlock initiateMove(int h) {
+        int info = slides.getInfo(h);
+        long pos = slides.getPos(h);
+        World world = worldTable[slides.getWorld(h)];
+        Block b = world.getBlockAt(BlockPos.getX(pos), BlockPos.getY(pos), BlockPos.getZ(pos));
+        Material mat = Material.getMaterial((info >> MATERIAL_SHIFT) & MATERIAL_MASK);
+        byte data = (byte) (info & DATA_MASK);
+        if (((info >> KIND_SHIFT) & KIND_MASK) == KIND_FLING) {
+            Location loc = b.getLocation().add(slides.getVector(h, 0), slides.getVector(h, 1), slides.getVector(h, 2));
+            Vector vec = new Vector(slides.getVector(h, 3), slides.getVector(h, 4), slides.getVector(h, 5));
+            return initiateFling(b, loc, vec, mat, data, (info & CLEARED_BIT) != 0, slides.getTag(h));
+        } else {
+            BlockFace direction = faces[(info >> FACE_SHIFT) & FACE_MASK];
+            return initiateSlide(b, direction, mat, data, (info & IMMEDIATE_BIT) != 0, slides.getTag(h));
+        }
     }
 
-    public void setMaxSlidesPerTick(int max) {
-        maxSlidesPerTick = max;
+    public BlockChangeBatch getBlockChanges() {
+        return changes;
     }
 
-    public int getMaxSlidesPerTick() {
-        return maxSlidesPerTick;
+    public FallingBlockRegistry getFallingBlocks() {
+        return fallingBlocks;
     }
 
-    public void setMaxSlidesTotal(int max) {
-        maxSlidesTotal = max;
+    public SlideQuotas getQuotas() {
+        return quotas;
+    }
+
+    public int getMaxSlidesPerTick() {
+        return plugin.getSnapshot().getMaxSlidesPerTick();
     }
 
     public int getMaxSlidesTotal() {
-        return maxSlidesTotal;
+        return plugin.getSnapshot().getMaxSlidesTotal();
     }
 
-    private boolean isBraced(Block block, BlockFace face) {
-        if (bracingDistance <= 0) {
-            return false;
-        }
-        if (bracingMaterials.contains(getNeighbour(face).getType())) {
-            return true;
-        }
-        if (bracingDistance > 1) {
-            for (int i = 2; i <= bracingDistance; i++) {
-                if (bracingMaterials.contains(block.getRelative(face, i).getType())) {
-                    return true;
+    /**
+     * Get the current slide rules.  The rules object is immutable and is replaced whenever the
+     * relevant configuration changes, so it may be handed to other threads.
+     *
+     * @return the slide rules
+     */
+    public SlideRules getRules() {
+        return rules;
+    }
+
+    /**
+     * Bring the state derived from the global settings (the slide rules and the WorldGuard flag)
+     * into line with the plugin's current configuration snapshot.  The rules, along with the
+     * bracing data cached for them, are only rebuilt if one of their settings has changed.
+     */
+    public void configChanged() {
+        ConfigSnapshot snap = plugin.getSnapshot();
+        ConfigSnapshot old = rulesConfig;
+        rulesConfig = snap;
+        if (old == null || !old.getBracingMaterials().equals(snap.getBracingMaterials())
+                || old.getBracingDistance() != snap.getBracingDistance()
+                || old.isFullBracingScan() != snap.isFullBracingScan()
+                || old.isStickyPistonsRetracted() != snap.isStickyPistonsRetracted()
+                || old.isStickyPistonsExtended() != snap.isStickyPistonsExtended()) {
+            Set<Material> bracingMaterials = new HashSet<Material>();
+            for (String s : snap.getBracingMaterials()) {
+                try {
+                    bracingMaterials.add(Material.matchMaterial(s));
+                } catch (IllegalArgumentException e) {
+                    LogUtils.warning("invalid material " + s + " in bracing_materials");
                 }
             }
+            rules = new SlideRules(bracingMaterials, snap.getBracingDistance(), snap.isFullBracingScan(),
+                    snap.isStickyPistonsRetracted(), snap.isStickyPistonsExtended());
+            bracingField.setRules(rules);
+        }
+        if (plugin.isWorldGuardAvailable() && snap.isWorldGuardEnabled()) {
+            String flagName = snap.getWorldGuardFlag();
+            if (flagName != null && !flagName.equals(wgFlagName)) {
+                wgFlagName = flagName;
+                setWorldGuardFlag(flagName);
+            }
         }
-        return false;
     }
 
-    private boolean isBraced(Block block) {
-        if (bracingDistance <= 0) {
-            return false;
-        }
-        Cuboid c = new Cuboid(block.getLocation()).outset(Cuboid.CuboidDirection.Both, bracingDistance);
-        for (Block b : c) {
-            if (bracingMaterials.contains(b.getType())) {
-                return true;
-            }
+    /**
+     * Notify the slide manager that a block of the given type has been placed, removed or
+     * replaced.  This is only of interest if the type is a bracing material.
+     *
+     * @param block  the block
+     * @param typeId the type ID which was placed or removed
+     */
+    public void blockChanged(Block block, int typeId) {
+        if (rules.isFullBracingScan() && rules.isBracingMaterial(typeId)) {
+            bracingField.markChanged(getWorldIndex(block.getWorld()), BlockPos.pack(block));
         }
-        return false;
     }
 
-    public void setFullBracingScan(boolean fullScan) {
-        this.fullBracingScan = fullScan;
+    public void chunkLoaded(Chunk chunk) {
+        bracingField.chunkLoaded(getWorldIndex(chunk.getWorld()), chunk.getX(), chunk.getZ());
+    }
+
+    public void chunkUnloaded(Chunk chunk) {
+        bracingField.chunkUnloaded(getWorldIndex(chunk.getWorld()), chunk.getX(), chunk.getZ());
     }
 
     /**
@@ -220,87 +544,85 @@ public class SlideManager {
      * @return the direction in which the block should slide, or null if it should not
      */
     public BlockFace wouldSlide(Block block) {
-        if (fullBracingScan && isBraced(block)) {
-            return null;
-        }
-        if (block.isLiquid() && block.getData() != 0) {
-            // flowing liquids may not slide
+        return wouldSlide(block, loadNeighbourhood(block));
+    }
+
+    /**
+     * Check if a block would slide, using a neighbourhood which has already been loaded
+     * with {@link #loadNeighbourhood(Block)}.
+     *
+     * @param block the block to check
+     * @param nb    the block's neighbourhood
+     * @return the direction in which the block should slide, or null if it should not
+     */
+    public BlockFace wouldSlide(Block block, BlockAccess nb) {
+        World world = block.getWorld();
+        if (rules.isFullBracingScan() && bracingField.isBraced(getWorldIndex(world), block.getX(), block.getY(), block.getZ())) {
             return null;
         }
-        for (BlockFace face : LandslidePlugin.allFaces) {
-            neighbours[face.ordinal()] = block.getRelative(face);
-            if (!fullBracingScan && isBraced(block, face)) {
-                return null;
-            } else if (getNeighbour(face).getType() == Material.PISTON_STICKY_BASE && stickyPistonsRetracted) {
-                PistonBaseMaterial pbm = (PistonBaseMaterial) getNeighbour(face).getState().getData();
-                if (pbm.getFacing() == face.getOppositeFace()) {
-                    return null;
-                }
-            } else if (getNeighbour(face).getType() == Material.PISTON_EXTENSION && stickyPistonsExtended) {
-                PistonExtensionMaterial pem = (PistonExtensionMaterial) getNeighbour(face).getState().getData();
-                if (pem.isSticky() && pem.getFacing() == face.getOppositeFace()) {
-                    return null;
-                }
-            } else if (getNeighbour(face).getType() == Material.PISTON_MOVING_PIECE) {
-                return null;
-            }
-        }
+        WorldContext ctx = plugin.getPerWorldConfig().getContext(world);
+        int mask = rules.getSlideDirections(nb, block.getX(), block.getY(), block.getZ(),
+                ctx.getHorizontalSlides(), ctx.getSlideIntoLiquid(), false);
+        return chooseDirection(world, BlockPos.pack(block), mask);
+    }
 
-        Block below = getNeighbour(BlockFace.DOWN);
-        if (!isSolid(below.getType()) && !bothLiquid(block, below)) {
+    /**
+     * Fetch the neighbourhood of the given block.  The returned object is shared and is
+     * only valid until the next call; main thread only.
+     *
+     * @param block the centre block
+     * @return the loaded neighbourhood
+     */
+    public BlockAccess loadNeighbourhood(Block block) {
+        return neighbourhood.load(liveSource.setWorld(block.getWorld()), block.getX(), block.getY(), block.getZ());
+    }
+
+    /**
+     * Check if the centre block of the given neighbourhood has no solid neighbours.
+     *
+     * @param nb the neighbourhood
+     * @return true if the block is floating
+     */
+    public boolean isOrphan(BlockAccess nb) {
+        return SlideRules.isOrphan(nb, nb.getCentreX(), nb.getCentreY(), nb.getCentreZ());
+    }
+
+    /**
+     * Pick a slide direction from the possibilities returned by
+     * {@link SlideRules#getSlideDirections(BlockSource, int, int, int, boolean, boolean)}, ignoring
+     * any horizontal direction that another pending slide is already heading for.
+     *
+     * @param world the world
+     * @param pos   the packed block position
+     * @param mask  the possible directions
+     * @return the chosen direction, or null if there is none
+     */
+    BlockFace chooseDirection(World world, long pos, int mask) {
+        if ((mask & SlideRules.DOWN) != 0) {
             return BlockFace.DOWN;
         }
-        if (!plugin.getPerWorldConfig().getHorizontalSlides(block.getWorld())) {
+        if (mask == 0) {
             return null;
         }
-        Block above = getNeighbour(BlockFace.UP);
-        List<BlockFace> possibles = new ArrayList<BlockFace>();
-        for (BlockFace face : LandslidePlugin.horizontalFaces) {
-            Block sideBlock = getNeighbour(face);
-            if (!isSolid(below.getRelative(face).getType()) &&
-                    !isThickSnowLayer(below.getRelative(face)) &&
-                    canSlideSideways(sideBlock) &&
-                    !isSolid(above.getRelative(face).getType()) &&
-                    !slideTo.contains(sideBlock.getLocation()) &&
-                    !bothLiquid(block, sideBlock)) {
-                possibles.add(face);
+        int worldIdx = getWorldIndex(world);
+        int nPossible = 0;
+        for (int i = 0; i < LandslidePlugin.horizontalFaces.length; i++) {
+            BlockFace face = LandslidePlugin.horizontalFaces[i];
+            if ((mask & (1 << i)) != 0 && !occupancy.isTarget(worldIdx, BlockPos.offset(pos, face.getModX(), 0, face.getModZ()))) {
+                possibles[nPossible++] = face;
             }
         }
-        switch (possibles.size()) {
+        switch (nPossible) {
             case 0:
                 return null;
             case 1:
-                return possibles.get(0);
+                return possibles[0];
             default:
-                return possibles.get(plugin.getRandom().nextInt(possibles.size()));
+                return possibles[plugin.getRandom().nextInt(nPossible)];
         }
     }
 
-    private boolean bothLiquid(Block block, Block block2) {
-        return block.isLiquid() && block2.isLiquid();
-    }
-
-    private boolean canSlideSideways(Block b) {
-        return plugin.getPerWorldConfig().getSlideIntoLiquid(b.getWorld()) ? !isSolid(b.getType()) : b.isEmpty();
-    }
-
-    private Block getNeighbour(BlockFace direction) {
-        return neighbours[direction.ordinal()];
-    }
-
-    private boolean isThickSnowLayer(Block b) {
-        return b.getType() == Material.SNOW && b.getData() > 4;
-    }
-
-    public void setWorldGuardEnabled(Boolean enabled) {
-        this.worldGuardEnabled = enabled;
-    }
-
-    public boolean isWorldGuardEnabled() {
-        return worldGuardEnabled;
-    }
-
-    public void setWorldGuardFlag(String flagName) {
+    private void setWorldGuardFlag(String flagName) {
         if (flagName == null || flagName.isEmpty()) {
             return;
         }
@@ -309,6 +631,7 @@ public class SlideManager {
             if (flag.getName().replace("-", "").equalsIgnoreCase(flagName)) {
                 if (flag instanceof StateFlag) {
                     this.wgFlag = (StateFlag) flag;
+                    plugin.getWorldGuardCache().setSlideFlag(wgFlag);
                     return;
                 }
             }
@@ -316,193 +639,306 @@ public class SlideManager {
         LogUtils.warning("bad value for worldguard.use_flag: " + flagName);
     }
 
-    private void alignForDrop(Drop drop) {
-        Location loc = drop.fb.getLocation();
+    private void alignForDrop(FallingBlock fb) {
+        if (!fb.isValid()) {
+            return;
+        }
+        Location loc = fb.getLocation();
         // align the block neatly on a 0.5 boundary so it will drop cleanly onto the block below,
         // minimising the chance of it breaking and dropping an item
         loc.setX(Math.floor(loc.getX()) + 0.5);
         loc.setZ(Math.floor(loc.getZ()) + 0.5);
-        drop.fb.teleport(loc);
+        fb.teleport(loc);
         // halt the block's lateral velocity, making it continue straight down
-        Vector vec = drop.fb.getVelocity();
+        Vector vec = fb.getVelocity();
         vec.setX(0.0);
         vec.setZ(0.0);
-        drop.fb.setVelocity(vec);
+        fb.setVelocity(vec);
     }
 
     private void scheduleDrop(FallingBlock fb, int delay) {
         if (delay != 0) {
-            int idx = (pointer + delay) % RING_BUFFER_SIZE;
-            drops[idx].add(new Drop(fb));
+            int h = drops.add(delay, 0L, 0, 0);
+            drops.setRef(h, fb);
         }
     }
 
     private boolean isProtectedByWG(Block b) {
-        if (!plugin.isWorldGuardAvailable() || !worldGuardEnabled) {
+        if (!plugin.isWorldGuardAvailable() || !plugin.getSnapshot().isWorldGuardEnabled()) {
             return false;
         }
-        return !WGBukkit.getRegionManager(b.getWorld()).getApplicableRegions(b.getLocation()).allows(wgFlag);
+        return !plugin.getWorldGuardCache().allows(b, WorldGuardCache.SLIDE);
     }
 
-    public void setBracingMaterials(List<String> bracingMaterialNames) {
-        bracingMaterials.clear();
-        for (String s : bracingMaterialNames) {
-            try {
-                bracingMaterials.add(Material.matchMaterial(s));
-            } catch (IllegalArgumentException e) {
-                LogUtils.warning("invalid material " + s + " in bracing_materials");
-            }
-        }
+    public static boolean isSolid(Material material) {
+        return MaterialFlags.isSolid(material.getId());
     }
 
-    public void setStickyPistonsRetracted(boolean sticky) {
-        stickyPistonsRetracted = sticky;
-    }
+    private FallingBlock initiateSlide(Block b, BlockFace direction, Material material, byte data, boolean immediate, int tag) {
+        // blocks moved earlier this tick may not have been cleared from the world yet, so read
+        // everything through the pending block changes
+        LiveBlockSource src = liveSource.setWorld(b.getWorld());
+        int x0 = b.getX(), y0 = b.getY(), z0 = b.getZ();
+        int type = src.getTypeId(x0, y0, z0);
+        if (wouldSlide(b) == null || (type != material.getId() && !immediate)) {
+            // sanity check; ensure the block can still slide now
+            return null;
+        }
 
-    public void setStickyPistonsExtended(boolean sticky) {
-        stickyPistonsExtended = sticky;
-    }
+        WorldContext ctx = plugin.getPerWorldConfig().getContext(b.getWorld());
+        Location loc = b.getLocation();
+        int blockType = 0;
+        byte blockData = 0;
 
-    public void setBracingDistance(Integer bracingDistance) {
-        this.bracingDistance = bracingDistance;
-    }
+        // falling block material, packed as (type ID << 4 | data)
+        int fbMaterial = -1;
 
-    private boolean isLiquid(Material material) {
-        switch (material) {
-            case WATER:
-            case STATIONARY_WATER:
-            case LAVA:
-            case STATIONARY_LAVA:
-                return true;
-            default:
-                return false;
-        }
-    }
+        if (type == Material.SNOW.getId() && MaterialFlags.isSolid(src.getTypeId(x0, y0 - 1, z0))) {
+            // special case; snow can slide off in layers
+            fbMaterial = Material.SNOW.getId() << 4; // single layer of snow
+            int snowData = src.getData(x0, y0, z0);
+            if (snowData > 0) {
+                // leave behind a slightly smaller layer of snow
+                blockData = (byte) (snowData - 1);
+                blockType = Material.SNOW.getId();
+            }
 
-    public static void setNonVanilla(boolean nonVanilla) {
-        SlideManager.nonVanilla = nonVanilla;
-    }
+        } else if (type == Material.STATIONARY_WATER.getId() || type == Material.WATER.getId()) {
+            // another special case: if a water block is about to slide, see if it's possible to fill
+            // in with a new source block instead of air
+            int nSourceBlocks = 0;
+            for (BlockFace face : LandslidePlugin.horizontalFaces) {
+                if (src.getTypeId(x0 + face.getModX(), y0, z0 + face.getModZ()) == Material.STATIONARY_WATER.getId()) {
+                    if (++nSourceBlocks >= 2) {
+                        blockType = Material.STATIONARY_WATER.getId();
+                        break;
+                    }
+                }
+            }
+        }
 
-    public static boolean isSolid(Material material) {
-        // account for possible non-vanilla blocks - we just treat anything
-        // that isn't a vanilla block as solid
-        // 175 is the highest vanilla block ID for MC 1.7.x
-        // TODO: looks like it will be 197 for MC 1.8
-        return material.isSolid() || (nonVanilla && material.getId() > 175);
-    }
-
-    private class Slide implements ScheduledBlockMove {
-        private final Location loc;
-        private final MaterialData materialData;
-        private final BlockFace direction;
-        private final boolean immediate;
-
-        private Slide(Location loc, BlockFace direction, Material blockType, byte data, boolean immediate) {
-            this.direction = direction;
-            this.loc = loc;
-            this.materialData = new MaterialData(blockType, data);
-            this.immediate = immediate;
-        }
-
-        @Override
-        public FallingBlock initiateMove() {
-            Block b = loc.getBlock();
-            if (wouldSlide(b) == null || (b.getType() != materialData.getItemType() && !immediate)) {
-                // sanity check; ensure the block can still slide now
+        if (fbMaterial < 0) {
+            fbMaterial = ctx.getTransform(material.getId(), data);
+            if (fbMaterial >> 4 == 0) {
+                // spawning falling air blocks makes the client very sad
                 return null;
             }
+        }
 
-            Block above = b.getRelative(BlockFace.UP);
-            int blockType = 0;
-            byte blockData = 0;
-
-            MaterialData fbMaterial = null;
-
-            if (b.getType() == Material.SNOW && isSolid(b.getRelative(BlockFace.DOWN).getType())) {
-                // special case; snow can slide off in layers
-                fbMaterial = new MaterialData(Material.SNOW, (byte) 0); // single layer of snow
-                if (b.getData() > 0) {
-                    // leave behind a slightly smaller layer of snow
-                    blockData = (byte) (b.getData() - 1);
-                    blockType = Material.SNOW.getId();
-                }
-
-            } else if (b.getType() == Material.STATIONARY_WATER || b.getType() == Material.WATER) {
-                // another special case: if a water block is about to slide, see if it's possible to fill
-                // in with a new source block instead of air
-                int nSourceBlocks = 0;
-                for (BlockFace face : LandslidePlugin.horizontalFaces) {
-                    if (b.getRelative(face).getType() == Material.STATIONARY_WATER) {
-                        if (++nSourceBlocks >= 2) {
-                            blockType = Material.STATIONARY_WATER.getId();
-                            break;
-                        }
-                    }
-                }
+        FallingBlock fb;
+        long start = BlockPos.pack(b);
+        BlockFace firstMove = direction;
+        if (MaterialFlags.isSolid(src.getTypeId(x0, y0 + 1, z0)) && direction != BlockFace.DOWN) {
+            // sliding out of a cliff face
+            if (plugin.getRandom().nextInt(100) < ctx.getCliffStability()) {
+                return null;
             }
+            changes.add(b.getWorld(), BlockPos.pack(b), blockType, blockData);
+            // start with the block out of its hole - can't slide it sideways with a block above
+            Block toSide = b.getRelative(direction);
+            start = BlockPos.pack(toSide);
+            firstMove = BlockFace.DOWN;
+            fb = loc.getWorld().spawnFallingBlock(toSide.getLocation(), Material.getMaterial(fbMaterial >> 4), (byte) (fbMaterial & 0xF));
+            float force = plugin.getRandom().nextFloat() / 2.0f;
+            fb.setVelocity(new Vector(direction.getModX() * force, 0.15, direction.getModZ() * force));
+        } else {
+            changes.add(b.getWorld(), BlockPos.pack(b), blockType, blockData);
+            fb = loc.getWorld().spawnFallingBlock(loc.add(0.0, direction == BlockFace.DOWN ? 0.0 : 0.15, 0.0), Material.getMaterial(fbMaterial >> 4), (byte) (fbMaterial & 0xF));
+            double x = direction.getModX() / 4.7;
+            double z = direction.getModZ() / 4.7;
+            fb.setVelocity(new Vector(x, direction == BlockFace.DOWN ? 0.0 : 0.15, z));
+        }
+        blockChanged(b, material.getId());
+        fb.setDropItem(!MaterialFlags.isLiquid(fbMaterial >> 4) && ctx.getDropItems());
+        int slot = fallingBlocks.register(fb, getWorldIndex(b.getWorld()), BlockPos.pack(b), tag, slides.getCurrentTick());
+
+        DescentPath path = null;
+        if (plugin.getSnapshot().isBouncePaths() && ctx.getFallingBlocksBounce()) {
+            path = planDescent(ctx, b.getWorld(), start, firstMove, fbMaterial, BlockPos.pack(b), blockType, blockData, FallingBlockRegistry.getBounces(tag));
+        }
+        if (path != null) {
+            // one entity follows the whole route; it won't bounce again when it finally lands
+            path.start(fb, slot);
+            descents.add(path);
+            fallingBlocks.setSettled(slot, true);
+            fallingBlocks.setTag(slot, FallingBlockRegistry.tag(FallingBlockRegistry.getAvalanche(tag), FallingBlockRegistry.getBounces(tag) + path.getHops()));
+        } else {
+            scheduleDrop(fb, (int) (Math.abs((fb.getVelocity().getX() + fb.getVelocity().getZ()) / 0.0354)));
+        }
+        return fb;
+    }
 
-            if (fbMaterial == null) {
-                fbMaterial = plugin.getPerWorldConfig().getTransform(b.getWorld(), materialData);
-                if (fbMaterial.getItemType() == Material.AIR) {
-                    // spawning falling air blocks makes the client very sad
-                    return null;
-                }
+    /**
+     * Work out in advance where a sliding block will end up, by applying the same rules that would
+     * be applied each time it lands and bounces.  Each bounce is still subject to bounce_chance,
+     * max_bounces, snow_slide_thickness, cliff stability, WorldGuard protection, the slide limits
+     * and quotas, and a {@link BlockSlideEvent}, as it would be if the block really landed.  The
+     * checks are all made now, when the path is planned, rather than as the block reaches each
+     * landing.
+     *
+     * @param ctx        the world's context
+     * @param world      the world
+     * @param start      packed position where the falling block is spawned
+     * @param firstMove  the direction of the first hop from the start, or DOWN to just fall
+     * @param fbMaterial the falling block's material, packed as (type ID &lt;&lt; 4 | data)
+     * @param origin     packed position of the block which is sliding
+     * @param leftType   type ID of the block left behind at the origin
+     * @param leftData   data of the block left behind at the origin
+     * @param bounces    how many times the block has already bounced
+     * @return the path, or null if the block won't bounce at all
+     */
+    private DescentPath planDescent(WorldContext ctx, World world, long start, BlockFace firstMove, int fbMaterial,
+                                    long origin, int leftType, byte leftData, int bounces) {
+        if (ctx.getSlideChance(fbMaterial >> 4, (byte) (fbMaterial & 0xF)) <= 0 || ctx.getOnlyWhenRaining() && !world.hasStorm()) {
+            return null;
+        }
+        ConfigSnapshot conf = plugin.getSnapshot();
+        int worldIdx = getWorldIndex(world);
+        liveSource.setWorld(world);
+        DescentPath path = new DescentPath();
+        path.setWorldIndex(worldIdx);
+        long pos = start;
+        BlockFace dir = firstMove;
+        path.addPoint(pos, false);
+        while (true) {
+            if (dir != BlockFace.DOWN) {
+                pos = BlockPos.offset(pos, dir.getModX(), 0, dir.getModZ());
+                path.addPoint(pos, false);
             }
+            int x = BlockPos.getX(pos), z = BlockPos.getZ(pos);
+            int y = BlockPos.getY(pos);
+            while (y > 0 && !MaterialFlags.isSolid(liveSource.getTypeId(x, y - 1, z))) {
+                y--;
+            }
+            pos = BlockPos.pack(x, y, z);
+            path.addPoint(pos, true);
 
-            FallingBlock fb;
-            if (isSolid(above.getType()) && direction != BlockFace.DOWN) {
-                // sliding out of a cliff face
-                if (plugin.getRandom().nextInt(100) < plugin.getPerWorldConfig().getCliffStability(b.getWorld())) {
-                    return null;
+            int here = liveSource.getTypeId(x, y, z);
+            if (y <= 0 || here != 0 && !MaterialFlags.isLiquid(here)) {
+                // the falling block may not be able to form a block here
+                break;
+            }
+            if (path.isFull() || conf.getMaxBounces() > 0 && bounces + path.getHops() >= conf.getMaxBounces()
+                    || plugin.getRandom().nextInt(100) >= conf.getBounceChance()) {
+                break;
+            }
+            if (fbMaterial >> 4 == Material.SNOW.getId() && (fbMaterial & 0xF) < ctx.getSnowSlideThickness() - 1) {
+                break;
+            }
+            if (rules.isFullBracingScan() && bracingField.isBraced(worldIdx, x, y, z)) {
+                break;
+            }
+            BlockAccess nb = neighbourhood.load(liveSource, x, y, z);
+            // the block's old position has not been cleared yet
+            nb.override(BlockPos.getX(origin), BlockPos.getY(origin), BlockPos.getZ(origin), leftType, leftData);
+            int mask = rules.getSlideDirections(nb, x, y, z, ctx.getHorizontalSlides(), ctx.getSlideIntoLiquid(), false);
+            BlockFace face = chooseDirection(world, pos, mask);
+            if (face == null || face == BlockFace.DOWN) {
+                break;
+            }
+            if (MaterialFlags.isSolid(liveSource.getTypeId(x, y + 1, z)) && plugin.getRandom().nextInt(100) < ctx.getCliffStability()) {
+                break;
+            }
+            Block landing = world.getBlockAt(x, y, z);
+            if (isProtectedByWG(landing) || !canHop(worldIdx, pos, BlockPos.offset(pos, face.getModX(), 0, face.getModZ()))) {
+                break;
+            }
+            if (BlockSlideEvent.getHandlerList().getRegisteredListeners().length > 0) {
+                BlockSlideEvent event = new BlockSlideEvent(landing, face);
+                Bukkit.getPluginManager().callEvent(event);
+                if (event.isCancelled()) {
+                    quotas.release(worldIdx, BlockPos.chunkKey(pos));
+                    heldHops--;
+                    break;
                 }
-                b.setTypeIdAndData(blockType, blockData, true);
-                // start with the block out of its hole - can't slide it sideways with a block above
-                Block toSide = loc.getBlock().getRelative(direction);
-                fb = loc.getWorld().spawnFallingBlock(toSide.getLocation(), fbMaterial.getItemType(), fbMaterial.getData());
-                float force = plugin.getRandom().nextFloat() / 2.0f;
-                fb.setVelocity(new Vector(direction.getModX() * force, 0.15, direction.getModZ() * force));
-            } else {
-                b.setTypeIdAndData(blockType, blockData, true);
-                fb = loc.getWorld().spawnFallingBlock(loc.add(0.0, direction == BlockFace.DOWN ? 0.0 : 0.15, 0.0), fbMaterial.getItemType(), fbMaterial.getData());
-                double x = direction.getModX() / 4.7;
-                double z = direction.getModZ() / 4.7;
-                fb.setVelocity(new Vector(x, direction == BlockFace.DOWN ? 0.0 : 0.15, z));
             }
-            fb.setDropItem(!isLiquid(fb.getMaterial()) && plugin.getPerWorldConfig().getDropItems(b.getWorld()));
-            scheduleDrop(fb, (int) (Math.abs((fb.getVelocity().getX() + fb.getVelocity().getZ()) / 0.0354)));
-            return fb;
+            path.addHop(BlockPos.chunkKey(pos));
+            dir = face;
         }
+        return path.getHops() > 0 ? path : null;
     }
 
-    private class Fling implements ScheduledBlockMove {
-        private final Location loc;
-        private final Vector vec;
-        private final MaterialData materialData;
-        private final Block block;
+    /**
+     * Check that a hop along a descent path could have been scheduled as an ordinary slide: the
+     * slide limits and quotas have room for it, and nothing else is moving into its way.  If so,
+     * a quota reservation is taken for the hop, which is held until the hop is over.
+     */
+    private boolean canHop(int worldIdx, long pos, long target) {
+        if (getMaxSlidesPerTick() <= 0 || !quotas.isEnabled() && getPendingTotal() >= getMaxSlidesTotal()) {
+            return false;
+        }
+        if (occupancy.isSource(worldIdx, pos) || occupancy.isTarget(worldIdx, target)) {
+            return false;
+        }
+        long chunkKey = BlockPos.chunkKey(pos);
+        if (!quotas.tryAcquire(worldIdx, chunkKey, getMaxSlidesTotal(), getPendingTotal())) {
+            return false;
+        }
+        heldHops++;
+        return true;
+    }
 
-        private Fling(Block block, Location location, Vector vec) {
-            this.block = block;
-            this.loc = location;
-            this.vec = vec;
-            this.materialData = new MaterialData(block.getType(), block.getData());
+    private void tickDescents() {
+        for (int i = descents.size() - 1; i >= 0; i--) {
+            DescentPath path = descents.get(i);
+            FallingBlock fb = path.getEntity();
+            if (!fb.isValid()) {
+                // landed or died early; its registry entry has been dealt with already
+                removeDescent(i);
+                continue;
+            }
+            int landingsPassed = path.getLandingsPassed();
+            int state = path.step(fb.getWorld());
+            releaseHops(path, path.getHopsCompleted());
+            if (path.getLandingsPassed() > landingsPassed && !path.isAtEnd()) {
+                // bouncing off a landing point along the way; the final landing is left to vanilla
+                long pos = path.getPosition();
+                Block landing = fb.getWorld().getBlockAt(BlockPos.getX(pos), BlockPos.getY(pos), BlockPos.getZ(pos));
+                plugin.getEventListener().landingImpact(plugin.getPerWorldConfig().getContext(fb.getWorld()), fb, landing);
+            }
+            if (state == DescentPath.ARRIVED) {
+                // set it down under vanilla physics; it's already right above its resting place
+                fb.setVelocity(new Vector(0.0, 0.0, 0.0));
+                removeDescent(i);
+            } else if (state == DescentPath.BLOCKED) {
+                // something got in the way; carry on as an ordinary falling block, which may bounce
+                int slot = path.getSlot();
+                int tag = fallingBlocks.getTag(slot);
+                int bounces = FallingBlockRegistry.getBounces(tag) - path.getHops() + Math.min(path.getLandingsPassed(), path.getHops());
+                fallingBlocks.setTag(slot, FallingBlockRegistry.tag(FallingBlockRegistry.getAvalanche(tag), bounces));
+                fallingBlocks.setSettled(slot, false);
+                Debugger.getInstance().debug(2, "descent path blocked for " + fb + " after " + path.getLandingsPassed() + " landings");
+                removeDescent(i);
+            }
         }
+    }
 
-        @Override
-        public FallingBlock initiateMove() {
-            block.setType(Material.AIR);
-            MaterialData md = plugin.getPerWorldConfig().getTransform(loc.getWorld(), materialData);
-            FallingBlock fb = loc.getWorld().spawnFallingBlock(loc, md.getItemType(), md.getData());
-            fb.setVelocity(vec);
-            fb.setDropItem(!isLiquid(fb.getMaterial()) && plugin.getPerWorldConfig().getDropItems(loc.getWorld()));
-            return fb;
+    private void releaseHops(DescentPath path, int hopsCompleted) {
+        while (path.getHops() - path.getHopsHeld() < hopsCompleted) {
+            quotas.release(path.getWorldIndex(), path.releaseHop());
+            heldHops--;
         }
     }
 
-    private class Drop {
-        private final FallingBlock fb;
+    private void removeDescent(int i) {
+        DescentPath path = descents.get(i);
+        releaseHops(path, path.getHops());
+        int last = descents.size() - 1;
+        descents.set(i, descents.get(last));
+        descents.remove(last);
+    }
 
-        private Drop(FallingBlock fb) {
-            this.fb = fb;
+    private FallingBlock initiateFling(Block block, Location loc, Vector vec, Material material, byte data, boolean cleared, int tag) {
+        if (!cleared) {
+            changes.add(block.getWorld(), BlockPos.pack(block), 0, (byte) 0);
+            blockChanged(block, material.getId());
         }
+        WorldContext ctx = plugin.getPerWorldConfig().getContext(loc.getWorld());
+        int fbMaterial = ctx.getTransform(material.getId(), data);
+        FallingBlock fb = loc.getWorld().spawnFallingBlock(loc, Material.getMaterial(fbMaterial >> 4), (byte) (fbMaterial & 0xF));
+        fb.setVelocity(vec);
+        fb.setDropItem(!MaterialFlags.isLiquid(fbMaterial >> 4) && ctx.getDropItems());
+        fallingBlocks.register(fb, getWorldIndex(block.getWorld()), BlockPos.pack(block), tag, slides.getCurrentTick());
+        return fb;
     }
 }
@@ -242,6 +242,10 @@ public class SlideOTron {
 
     private void forceSlide(LandslidePlugin plugin, Player player, Block b) {
         int size = Math.min(power, 20);
+        if (plugin.getSnapshot().isAsyncEvaluation()) {
+            forceSlideAsync(plugin, player, b, size);
+            return;
+        }
         int n = 0;
 
         Cuboid c = new Cuboid(b.getLocation());
@@ -267,6 +271,33 @@ public class SlideOTron {
         MiscUtil.statusMessage(player, "Scheduled " + n + " block" + s + " to slide");
     }
 
+    private void forceSlideAsync(LandslidePlugin plugin, final Player player, Block b, int size) {
+        // candidates go shell by shell outwards from the target block, as in the synchronous case
+        int side = 2 * size + 1;
+        long[] positions = new long[side * side * side];
+        int n = 0;
+        for (int s = 0; s <= size; s++) {
+            for (int dx = -s; dx <= s; dx++) {
+                for (int dy = -s; dy <= s; dy++) {
+                    for (int dz = -s; dz <= s; dz++) {
+                        if (Math.max(Math.abs(dx), Math.max(Math.abs(dy), Math.abs(dz))) == s) {
+                            positions[n++] = BlockPos.pack(b.getX() + dx, b.getY() + dy, b.getZ() + dz);
+                        }
+                    }
+                }
+            }
+        }
+        plugin.getAsyncEvaluator().evaluate(b.getWorld(), positions, n, b.getTypeId(), new AsyncSlideEvaluator.Callback() {
+            @Override
+            public void done(int scheduled) {
+                if (player.isOnline()) {
+                    String s = scheduled == 1 ? "" : "s";
+                    MiscUtil.statusMessage(player, "Scheduled " + scheduled + " block" + s + " to slide");
+                }
+            }
+        });
+    }
+
     private int forceSlide(LandslidePlugin plugin, Material mat, Cuboid c) {
         int n = 0;
         for (Block b : c) {
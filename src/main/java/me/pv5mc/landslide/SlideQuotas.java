@@ -0,0 +1,185 @@
+package me.pv5mc.landslide;
+
+/*
+This file is part of Landslide
+
+Landslide is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Landslide is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Landslide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Weighted fair sharing of the pending slide capacity between worlds, and between chunks within
+ * a world.
+ * <p>
+ * Each world with pending slides is entitled to a share of max_slides_total in proportion to its
+ * configured weight, relative to the other worlds which currently have work pending.  Shares are
+ * worked out from max_slides_total less quotas.headroom percent; the headroom is kept back so that
+ * a world which starts sliding while another is using everything still gets some capacity straight
+ * away, while the busy world drains down to its new, smaller share.  max_slides_total itself is
+ * never exceeded.  Within a world, no single chunk may hold more than quotas.chunk_share percent
+ * of the world's share.
+ */
+public class SlideQuotas {
+    private static final int DEFAULT_WEIGHT = 1;
+
+    private final Map<String, Integer> configuredWeights = new HashMap<String, Integer>();
+    private final List<String> worldNames = new ArrayList<String>();
+
+    private boolean enabled;
+    private int chunkSharePct = 25;
+    private int headroomPct = 10;
+    private int[] weights = new int[4];
+    private int[] worldPending = new int[4];
+    private LongIntHashMap[] chunkPending = new LongIntHashMap[4];
+    private int activeWeight;
+
+    public void processConfig(ConfigurationSection cs) {
+        configuredWeights.clear();
+        if (cs == null) {
+            enabled = false;
+            return;
+        }
+        enabled = cs.getBoolean("enabled");
+        chunkSharePct = Math.max(1, Math.min(100, cs.getInt("chunk_share", 25)));
+        headroomPct = Math.max(0, Math.min(50, cs.getInt("headroom", 10)));
+        ConfigurationSection ws = cs.getConfigurationSection("world_shares");
+        if (ws != null) {
+            for (String worldName : ws.getKeys(false)) {
+                configuredWeights.put(worldName, Math.max(1, ws.getInt(worldName)));
+            }
+        }
+        activeWeight = 0;
+        for (int i = 0; i < worldNames.size(); i++) {
+            weights[i] = getConfiguredWeight(worldNames.get(i));
+            if (worldPending[i] > 0) {
+                activeWeight += weights[i];
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Register a world with the given index, as allocated by the slide manager.
+     *
+     * @param idx       the world index
+     * @param worldName the world's name
+     */
+    public void registerWorld(int idx, String worldName) {
+        if (idx >= weights.length) {
+            int cap = Math.max(idx + 1, weights.length * 2);
+            weights = Arrays.copyOf(weights, cap);
+            worldPending = Arrays.copyOf(worldPending, cap);
+            chunkPending = Arrays.copyOf(chunkPending, cap);
+        }
+        while (worldNames.size() <= idx) {
+            worldNames.add(null);
+        }
+        worldNames.set(idx, worldName);
+        weights[idx] = getConfiguredWeight(worldName);
+        chunkPending[idx] = new LongIntHashMap();
+    }
+
+    /**
+     * Forget about a world which has been unloaded, along with anything it had pending.
+     *
+     * @param idx the world index
+     */
+    public void unregisterWorld(int idx) {
+        if (worldPending[idx] > 0) {
+            activeWeight -= weights[idx];
+        }
+        worldPending[idx] = 0;
+        chunkPending[idx] = null;
+        worldNames.set(idx, null);
+    }
+
+    /**
+     * Try to reserve capacity for one slide in the given world and chunk.  Queue depths are
+     * tracked even when quotas are disabled, in which case this always succeeds.
+     *
+     * @param idx          the world index
+     * @param chunkKey     the chunk key, as returned by {@link BlockPos#chunkKey(long)}
+     * @param totalLimit   the global pending slide limit
+     * @param totalPending the number of slides currently pending across all worlds
+     * @return true if the slide may be scheduled; the caller must later call {@link #release(int, long)}
+     */
+    public boolean tryAcquire(int idx, long chunkKey, int totalLimit, int totalPending) {
+        if (enabled) {
+            if (totalPending >= totalLimit) {
+                return false;
+            }
+            int pending = worldPending[idx];
+            int active = activeWeight + (pending == 0 ? weights[idx] : 0);
+            int shared = Math.max(1, totalLimit - totalLimit * headroomPct / 100);
+            int worldCap = ceilDiv(shared * weights[idx], active);
+            if (pending >= worldCap) {
+                return false;
+            }
+            int chunkCap = Math.max(1, ceilDiv(worldCap * chunkSharePct, 100));
+            if (chunkPending[idx].get(chunkKey, 0) >= chunkCap) {
+                return false;
+            }
+        }
+        acquire(idx, chunkKey);
+        return true;
+    }
+
+    /**
+     * Reserve capacity for one move in the given world and chunk without checking any limits,
+     * for moves which are exempt from them.
+     *
+     * @param idx      the world index
+     * @param chunkKey the chunk key, as returned by {@link BlockPos#chunkKey(long)}
+     */
+    public void acquire(int idx, long chunkKey) {
+        chunkPending[idx].addTo(chunkKey, 1);
+        if (worldPending[idx]++ == 0) {
+            activeWeight += weights[idx];
+        }
+    }
+
+    public void release(int idx, long chunkKey) {
+        chunkPending[idx].addTo(chunkKey, -1);
+        if (--worldPending[idx] == 0) {
+            activeWeight -= weights[idx];
+        }
+    }
+
+    public int getWorldPending(int idx) {
+        return idx < worldPending.length ? worldPending[idx] : 0;
+    }
+
+    public int getChunkPending(int idx, long chunkKey) {
+        return idx < chunkPending.length && chunkPending[idx] != null ? chunkPending[idx].get(chunkKey, 0) : 0;
+    }
+
+    private int getConfiguredWeight(String worldName) {
+        Integer w = configuredWeights.get(worldName);
+        return w == null ? DEFAULT_WEIGHT : w;
+    }
+
+    private static int ceilDiv(int a, int b) {
+        return (a + b - 1) / b;
+    }
+}
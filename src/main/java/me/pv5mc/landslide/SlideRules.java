@@ -0,0 +1,220 @@
+package me.pv5mc.landslide;
+
+/*
+This file is part of Landslide
+
+Landslide is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Landslide is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Landslide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import org.bukkit.Material;
+import org.bukkit.block.BlockFace;
+
+import java.util.Collection;
+
+/**
+ * The rules which decide whether, and in which directions, a block is able to slide.  An instance
+ * is immutable and only reads blocks through a {@link BlockSource}, so the same rules can be run on
+ * the main thread against the live world, or on worker threads against chunk snapshots.
+ * <p>
+ * Results are returned as a bitmask: {@link #DOWN} if the block can drop straight down, otherwise
+ * bit <em>n</em> set for each of {@link LandslidePlugin#horizontalFaces}[<em>n</em>] that the
+ * block could slide towards.  Choosing between the possible directions, and checking them against
+ * other pending slides, is left to the caller.
+ */
+public class SlideRules {
+    public static final int DOWN = 1 << 4;
+
+    private static final int PISTON_STICKY_BASE = Material.PISTON_STICKY_BASE.getId();
+    private static final int PISTON_EXTENSION = Material.PISTON_EXTENSION.getId();
+    private static final int PISTON_MOVING_PIECE = Material.PISTON_MOVING_PIECE.getId();
+    private static final int SNOW = Material.SNOW.getId();
+    private static final BlockFace[] pistonFacings = {
+            BlockFace.DOWN, BlockFace.UP, BlockFace.NORTH, BlockFace.SOUTH, BlockFace.WEST, BlockFace.EAST
+    };
+
+    private final boolean[] bracing = new boolean[4096];
+    private final int bracingDistance;
+    private final boolean fullBracingScan;
+    private final boolean stickyPistonsRetracted;
+    private final boolean stickyPistonsExtended;
+
+    public SlideRules(Collection<Material> bracingMaterials, int bracingDistance, boolean fullBracingScan,
+                      boolean stickyPistonsRetracted, boolean stickyPistonsExtended) {
+        for (Material m : bracingMaterials) {
+            if (m != null) {
+                bracing[m.getId() & 0xFFF] = true;
+            }
+        }
+        this.bracingDistance = bracingDistance;
+        this.fullBracingScan = fullBracingScan;
+        this.stickyPistonsRetracted = stickyPistonsRetracted;
+        this.stickyPistonsExtended = stickyPistonsExtended;
+    }
+
+    /**
+     * Work out the directions in which the block at the given position could slide.  The
+     * slidiness of the block's material is not checked here.
+     *
+     * @param src              where to read blocks from
+     * @param x                block X
+     * @param y                block Y
+     * @param z                block Z
+     * @param horizontalSlides true if the world allows blocks to slide sideways
+     * @param slideIntoLiquid  true if the world allows blocks to slide sideways into liquids
+     * @return a bitmask of possible directions; 0 if the block can't slide
+     */
+    public int getSlideDirections(BlockSource src, int x, int y, int z, boolean horizontalSlides, boolean slideIntoLiquid) {
+        return getSlideDirections(src, x, y, z, horizontalSlides, slideIntoLiquid, true);
+    }
+
+    /**
+     * Work out the directions in which the block at the given position could slide, optionally
+     * leaving out the full bracing scan because the caller has already done it more cheaply.
+     *
+     * @param src              where to read blocks from
+     * @param x                block X
+     * @param y                block Y
+     * @param z                block Z
+     * @param horizontalSlides true if the world allows blocks to slide sideways
+     * @param slideIntoLiquid  true if the world allows blocks to slide sideways into liquids
+     * @param fullScan         true to do the full bracing scan (if enabled) against the block source
+     * @return a bitmask of possible directions; 0 if the block can't slide
+     */
+    public int getSlideDirections(BlockSource src, int x, int y, int z, boolean horizontalSlides, boolean slideIntoLiquid, boolean fullScan) {
+        if (fullBracingScan && fullScan && isBraced(src, x, y, z)) {
+            return 0;
+        }
+        boolean liquid = isLiquid(src.getTypeId(x, y, z));
+        if (liquid && src.getData(x, y, z) != 0) {
+            // flowing liquids may not slide
+            return 0;
+        }
+        for (BlockFace face : LandslidePlugin.allFaces) {
+            int nx = x + face.getModX(), ny = y + face.getModY(), nz = z + face.getModZ();
+            int neighbour = src.getTypeId(nx, ny, nz);
+            if (!fullBracingScan && isBraced(src, x, y, z, face, neighbour)) {
+                return 0;
+            } else if (neighbour == PISTON_STICKY_BASE && stickyPistonsRetracted) {
+                if (getPistonFacing(src.getData(nx, ny, nz)) == face.getOppositeFace()) {
+                    return 0;
+                }
+            } else if (neighbour == PISTON_EXTENSION && stickyPistonsExtended) {
+                int data = src.getData(nx, ny, nz);
+                if ((data & 0x8) != 0 && getPistonFacing(data) == face.getOppositeFace()) {
+                    return 0;
+                }
+            } else if (neighbour == PISTON_MOVING_PIECE) {
+                return 0;
+            }
+        }
+
+        int below = src.getTypeId(x, y - 1, z);
+        if (!isSolid(below) && !(liquid && isLiquid(below))) {
+            return DOWN;
+        }
+        if (!horizontalSlides) {
+            return 0;
+        }
+        int mask = 0;
+        for (int i = 0; i < LandslidePlugin.horizontalFaces.length; i++) {
+            BlockFace face = LandslidePlugin.horizontalFaces[i];
+            int sx = x + face.getModX(), sz = z + face.getModZ();
+            int side = src.getTypeId(sx, y, sz);
+            int belowSide = src.getTypeId(sx, y - 1, sz);
+            if (!isSolid(belowSide) &&
+                    !(belowSide == SNOW && src.getData(sx, y - 1, sz) > 4) &&
+                    (slideIntoLiquid ? !isSolid(side) : side == 0) &&
+                    !isSolid(src.getTypeId(sx, y + 1, sz)) &&
+                    !(liquid && isLiquid(side))) {
+                mask |= 1 << i;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Check if any of the six blocks adjacent to the given position is solid.
+     *
+     * @param src where to read blocks from
+     * @param x   block X
+     * @param y   block Y
+     * @param z   block Z
+     * @return true if the block has no solid neighbours
+     */
+    public static boolean isOrphan(BlockSource src, int x, int y, int z) {
+        for (BlockFace f : LandslidePlugin.allFaces) {
+            if (isSolid(src.getTypeId(x + f.getModX(), y + f.getModY(), z + f.getModZ()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isBraced(BlockSource src, int x, int y, int z, BlockFace face, int neighbour) {
+        if (bracingDistance <= 0) {
+            return false;
+        }
+        if (bracing[neighbour & 0xFFF]) {
+            return true;
+        }
+        for (int i = 2; i <= bracingDistance; i++) {
+            if (bracing[src.getTypeId(x + face.getModX() * i, y + face.getModY() * i, z + face.getModZ() * i) & 0xFFF]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isBraced(BlockSource src, int x, int y, int z) {
+        if (bracingDistance <= 0) {
+            return false;
+        }
+        int d = bracingDistance;
+        for (int bx = x - d; bx <= x + d; bx++) {
+            for (int bz = z - d; bz <= z + d; bz++) {
+                for (int by = y - d; by <= y + d; by++) {
+                    if (bracing[src.getTypeId(bx, by, bz) & 0xFFF]) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    public boolean isBracingMaterial(int typeId) {
+        return bracing[typeId & 0xFFF];
+    }
+
+    public int getBracingDistance() {
+        return bracingDistance;
+    }
+
+    public boolean isFullBracingScan() {
+        return fullBracingScan;
+    }
+
+    private static BlockFace getPistonFacing(int data) {
+        int dir = data & 0x7;
+        return dir < pistonFacings.length ? pistonFacings[dir] : BlockFace.SELF;
+    }
+
+    public static boolean isSolid(int typeId) {
+        return MaterialFlags.isSolid(typeId);
+    }
+
+    public static boolean isLiquid(int typeId) {
+        return MaterialFlags.isLiquid(typeId);
+    }
+}
@@ -0,0 +1,77 @@
+package me.pv5mc.landslide;
+
+/*
+This file is part of Landslide
+
+Landslide is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Landslide is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Landslide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A block source backed by a set of chunk snapshots, which may be read from any one thread once built.
+ * Positions in chunks which weren't captured read as stone, so that nothing is ever judged able
+ * to move into unknown territory.
+ */
+public class SnapshotBlockSource implements BlockSource {
+    private static final int UNKNOWN = Material.STONE.getId();
+
+    private final Map<Long, ChunkSnapshot> snapshots = new HashMap<Long, ChunkSnapshot>();
+    private final int maxHeight;
+    private long lastKey = Long.MIN_VALUE;
+    private ChunkSnapshot last;
+
+    public SnapshotBlockSource(int maxHeight) {
+        this.maxHeight = maxHeight;
+    }
+
+    public void add(ChunkSnapshot snapshot) {
+        snapshots.put(BlockPos.chunkKey(snapshot.getX(), snapshot.getZ()), snapshot);
+    }
+
+    public boolean contains(int chunkX, int chunkZ) {
+        return snapshots.containsKey(BlockPos.chunkKey(chunkX, chunkZ));
+    }
+
+    @Override
+    public int getTypeId(int x, int y, int z) {
+        if (y < 0 || y >= maxHeight) {
+            return 0;
+        }
+        ChunkSnapshot cs = getSnapshot(x, z);
+        return cs == null ? UNKNOWN : cs.getBlockTypeId(x & 0xF, y, z & 0xF);
+    }
+
+    @Override
+    public int getData(int x, int y, int z) {
+        if (y < 0 || y >= maxHeight) {
+            return 0;
+        }
+        ChunkSnapshot cs = getSnapshot(x, z);
+        return cs == null ? 0 : cs.getBlockData(x & 0xF, y, z & 0xF);
+    }
+
+    private ChunkSnapshot getSnapshot(int x, int z) {
+        long key = BlockPos.chunkKey(x >> 4, z >> 4);
+        if (key != lastKey) {
+            last = snapshots.get(key);
+            lastKey = key;
+        }
+        return last;
+    }
+}
@@ -1,58 +1,271 @@
 package me.pv5mc.landslide;
 
-import com.sk89q.worldguard.bukkit.WGBukkit;
-import com.sk89q.worldguard.protection.flags.DefaultFlag;
-import com.sk89q.worldguard.protection.flags.StateFlag;
+import me.pv5mc.dhutils.Debugger;
+import me.pv5mc.dhutils.LogUtils;
 import org.bukkit.Bukkit;
 import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
 import org.bukkit.entity.FallingBlock;
-import org.bukkit.scheduler.BukkitRunnable;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.IllegalPluginAccessException;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snow formation and melting.
+ * <p>
+ * Each world has one long-lived snow pass.  Every snow.check_interval seconds, provided the
+ * previous pass over the world has finished, a new pass takes a snapshot of the world's loaded
+ * chunks and works through them, spread evenly over the interval.  Chunk processing is also
+ * limited by a time budget of at most snow.max_ms per tick, which backs off while the server's
+ * average tick time (as measured by {@link TickBudget}) is above adaptive_budget.target_mspt; a
+ * pass which falls behind catches up over the following ticks, and is simply resumed if it runs
+ * past the end of the interval.
+ * <p>
+ * The main thread only captures chunk snapshots.  Sampling the chunks, and working out which
+ * snow layers form, melt or are smoothed, is done on the async evaluator's worker threads; the
+ * resulting list of changes is then applied back on the main thread.
+ * <p>
+ * Only chunks within snow.simulation_radius chunks of a player (or all loaded chunks, if the
+ * radius is 0) are simulated.  Every other chunk is dormant: when a chunk is unloaded or falls
+ * outside the radius, the snow depth of each of its columns is recorded in the world's
+ * {@link SnowStore}, and when it is next loaded within the radius, the forming and melting it
+ * missed is applied to each column in one go, from the expected number of samples the column
+ * would have received.  Columns which no longer match the recorded depth have been changed by
+ * something else, and are left alone.  Chunks with no snow in a cold biome get no record at all.
+ * <p>
+ * Snow stores are copied on the main thread and written out on a separate thread, one save at a
+ * time, except when the plugin is being disabled.
+ */
 public class SnowHandler {
+    private static final int SIMULATE = 0;
+    private static final int CATCH_UP = 1;
+    private static final int RECORD = 2;
+
     private final LandslidePlugin plugin;
-    private boolean snowSmoothing;
-    private boolean meltAway;
-    private int meltLightLevel;
-    private boolean wgChecks;
+    private final TickBudget budget = new TickBudget();
+    private SnowPass[] passes = new SnowPass[4];
+    private ExecutorService saver;
+    private long tickCount;
+    private int interval;
 
     public SnowHandler(LandslidePlugin plugin) {
         this.plugin = plugin;
     }
 
-    public void setSnowSmoothing(boolean snowSmoothing) {
-        this.snowSmoothing = snowSmoothing;
+    /**
+     * Called once per tick: advance each world's snow clocks, start a pass over any world which
+     * is due one, and carry on with any passes in progress.
+     *
+     * @param interval ticks between the starts of successive passes over a world; 0 if snow
+     *                 simulation is disabled
+     */
+    public void tick(int interval) {
+        this.interval = interval;
+        if (interval <= 0) {
+            return;
+        }
+        tickCount++;
+        ConfigSnapshot snap = plugin.getSnapshot();
+        budget.startTick(snap.getAdaptiveBudgetTargetMspt(), snap.getSnowMaxMs() / 10.0, snap.getSnowMaxMs());
+        long start = System.nanoTime();
+        List<World> worlds = Bukkit.getWorlds();
+        // rotate the starting world so one busy world can't hog the budget every tick
+        int nWorlds = worlds.size();
+        for (int i = 0; i < nWorlds; i++) {
+            World w = worlds.get((int) ((tickCount + i) % nWorlds));
+            WorldContext ctx = plugin.getPerWorldConfig().getContext(w);
+            SnowPass pass = getPass(ctx);
+            pass.store.advance(w.hasStorm());
+            if (!pass.isActive() && tickCount - pass.startTick >= interval) {
+                pass.start(ctx, tickCount);
+            }
+            pass.run(ctx, start, interval);
+        }
     }
 
-    public void setMeltAway(boolean meltAway) {
-        this.meltAway = meltAway;
+    /**
+     * Queue a newly-loaded chunk to catch up on the snow it missed, if it has any recorded.
+     *
+     * @param chunk the chunk
+     */
+    public void chunkLoaded(Chunk chunk) {
+        if (interval <= 0) {
+            return;
+        }
+        SnowPass pass = getPass(plugin.getPerWorldConfig().getContext(chunk.getWorld()));
+        long key = BlockPos.chunkKey(chunk.getX(), chunk.getZ());
+        if (pass.store.get(key) != null) {
+            pass.queueCatchUp(key);
+        }
     }
 
-    public void setMeltLightLevel(int meltLightLevel) {
-        this.meltLightLevel = meltLightLevel;
+    /**
+     * Record the snow state of a chunk which is being unloaded, unless it's already dormant.  This
+     * is done right away, without a chunk snapshot: only cold columns are recorded, and only their
+     * top two blocks are looked at.
+     *
+     * @param chunk the chunk
+     */
+    public void chunkUnloaded(Chunk chunk) {
+        if (interval <= 0) {
+            return;
+        }
+        World world = chunk.getWorld();
+        WorldContext ctx = plugin.getPerWorldConfig().getContext(world);
+        if (ctx.getSnowFormChance() <= 0 && ctx.getSnowMeltChance() <= 0) {
+            // no snow passes in this world, so nothing to catch up on later
+            return;
+        }
+        SnowPass pass = getPass(ctx);
+        long key = BlockPos.chunkKey(chunk.getX(), chunk.getZ());
+        if (pass.emptyChunks.remove(key) || pass.store.get(key) != null) {
+            return;
+        }
+        SnowStore.Record rec = new SnowStore.Record(pass.store.getFormClock(), pass.store.getMeltClock());
+        int baseX = chunk.getX() << 4, baseZ = chunk.getZ() << 4;
+        int maxHeight = world.getMaxHeight();
+        boolean any = false;
+        for (int x = 0; x < 16; x++) {
+            for (int z = 0; z < 16; z++) {
+                // only cold columns are caught up later, so only they are worth recording
+                if (world.getTemperature(baseX + x, baseZ + z) >= 0.1) {
+                    continue;
+                }
+                int depth = getSnowDepth(world, baseX + x, baseZ + z, maxHeight);
+                if (depth > 0) {
+                    rec.setDepth(x, z, depth);
+                    any = true;
+                }
+            }
+        }
+        if (any) {
+            pass.store.put(key, rec);
+        }
     }
 
-    public void setWgChecks(boolean wgChecks) {
-        this.wgChecks = wgChecks;
+    /**
+     * Find the depth of the snow at the top of a column, in layers, as {@link SnowJob} does for a
+     * chunk snapshot.
+     */
+    private static int getSnowDepth(World world, int x, int z, int maxHeight) {
+        int y = world.getHighestBlockYAt(x, z);
+        if (y <= 0 || y >= maxHeight) {
+            return 0;
+        }
+        int top = world.getBlockTypeIdAt(x, y, z), below = world.getBlockTypeIdAt(x, y - 1, z);
+        if (top == SnowJob.SNOW) {
+            int depth = world.getBlockAt(x, y, z).getData() + 1;
+            return below == SnowJob.SNOW_BLOCK ? Math.min(SnowJob.MAX_DEPTH, depth + 8) : depth;
+        } else if (top == SnowJob.AIR && below == SnowJob.SNOW_BLOCK) {
+            return 8;
+        }
+        return 0;
     }
 
-    public void tick() {
-        for (World w : Bukkit.getWorlds()) {
-            int limit = w.hasStorm() ? plugin.getPerWorldConfig().getSnowFormChance(w) : plugin.getPerWorldConfig().getSnowMeltChance(w);
-            if (limit <= 0) {
-                continue;
+    /**
+     * Save a world's snow store, and drop any pass in progress, for a world which is being unloaded.
+     *
+     * @param ctx the world's context
+     */
+    public void worldUnloaded(WorldContext ctx) {
+        if (ctx.getIndex() < passes.length && passes[ctx.getIndex()] != null) {
+            passes[ctx.getIndex()].save(true);
+            passes[ctx.getIndex()] = null;
+        }
+    }
+
+    public void worldSaved(World world) {
+        for (SnowPass pass : passes) {
+            if (pass != null && pass.world == world) {
+                pass.save(true);
+            }
+        }
+    }
+
+    /**
+     * Save every world's snow store right away, once any saves already queued have finished.
+     * Called when the plugin is disabled.
+     */
+    public void saveAll() {
+        if (saver != null) {
+            saver.shutdown();
+            try {
+                saver.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            saver = null;
+        }
+        for (SnowPass pass : passes) {
+            if (pass != null) {
+                pass.save(false);
             }
-            limit = (256 * limit) / 100; // 256 blocks per chunk layer
+        }
+    }
 
-            int formRate = plugin.getPerWorldConfig().getSnowFormRate(w);
-            int meltRate = plugin.getPerWorldConfig().getSnowMeltRate(w);
-            int modifier = w.hasStorm() ? formRate : -meltRate;
+    private ExecutorService getSaver() {
+        if (saver == null) {
+            saver = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Landslide snow saver");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return saver;
+    }
 
-            new ChunkProcessor(w, modifier, limit).runTaskTimer(plugin, 0L, 1L);
+    private SnowPass getPass(WorldContext ctx) {
+        int idx = ctx.getIndex();
+        if (idx >= passes.length) {
+            passes = Arrays.copyOf(passes, Math.max(idx + 1, passes.length * 2));
+        }
+        SnowPass pass = passes[idx];
+        if (pass == null || pass.world != ctx.getWorld()) {
+            // first pass over a world happens one interval after it's first seen, as before
+            pass = passes[idx] = new SnowPass(ctx.getWorld(), idx, tickCount);
         }
+        return pass;
+    }
+
+    private boolean isLive(int chunkX, int chunkZ, int[] playerChunks) {
+        int simulationRadius = plugin.getSnapshot().getSnowSimulationRadius();
+        if (simulationRadius <= 0) {
+            return true;
+        }
+        for (int i = 0; i < playerChunks.length; i += 2) {
+            if (Math.abs(playerChunks[i] - chunkX) <= simulationRadius && Math.abs(playerChunks[i + 1] - chunkZ) <= simulationRadius) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int[] getPlayerChunks(World world) {
+        List<Player> players = world.getPlayers();
+        int[] res = new int[players.size() * 2];
+        for (int i = 0; i < players.size(); i++) {
+            Location loc = players.get(i).getLocation();
+            res[i * 2] = loc.getBlockX() >> 4;
+            res[i * 2 + 1] = loc.getBlockZ() >> 4;
+        }
+        return res;
     }
 
     /**
@@ -81,110 +294,576 @@ public class SnowHandler {
         });
     }
 
-    private void processOneChunk(World w, Chunk c, int modifier, int limit) {
-        for (int i = 0; i < limit; i++) {
-            int x = plugin.getRandom().nextInt(16);
-            int z = plugin.getRandom().nextInt(16);
-            Block block = w.getHighestBlockAt(c.getX() * 16 + x, c.getZ() * 16 + z);
-            Block below = block.getRelative(BlockFace.DOWN);
-            if (block.getTemperature() < 0.1 && (modifier > 0 || block.getLightLevel() > meltLightLevel)) {
-                if (wgChecks) {
-                    StateFlag flag = modifier > 0 ? DefaultFlag.SNOW_FALL : DefaultFlag.SNOW_MELT;
-                    if (!WGBukkit.getRegionManager(w).getApplicableRegions(block.getLocation()).allows(flag)) {
-                        continue;
-                    }
+    /**
+     * Apply the results of a snow job on the main thread.  Each change is only made if its chunk
+     * is still loaded and the block still has the type and data the job saw; the writes go
+     * through the slide manager's block change batch, so they are made chunk by chunk.  Records
+     * made by the job are added to the world's snow store.
+     */
+    private void applyJob(SnowJob job) {
+        SnowPass pass = job.pass;
+        pass.outstanding--;
+        if (passes[pass.index] != pass) {
+            // the world was unloaded while the job was running
+            return;
+        }
+        World w = pass.world;
+        BlockChangeBatch changes = plugin.getSlideManager().getBlockChanges();
+        boolean wgChecks = plugin.isWorldGuardAvailable() && plugin.getSnapshot().isWorldGuardEnabled();
+        int applied = 0;
+        for (int i = 0; i < job.nResults; i++) {
+            long pos = job.positions[i];
+            int x = BlockPos.getX(pos), z = BlockPos.getZ(pos);
+            if (!w.isChunkLoaded(x >> 4, z >> 4)) {
+                continue;
+            }
+            Block b = w.getBlockAt(x, BlockPos.getY(pos), z);
+            if (((b.getTypeId() << 4) | b.getData()) != job.expected[i]) {
+                // changed while we were thinking about it
+                continue;
+            }
+            if (wgChecks) {
+                boolean forming = getSnowThickness(job.results[i] >> 4, job.results[i] & 0xF) > getSnowThickness(job.expected[i] >> 4, job.expected[i] & 0xF);
+                if (!plugin.getWorldGuardCache().allows(b, forming ? WorldGuardCache.SNOW_FALL : WorldGuardCache.SNOW_MELT)) {
+                    continue;
                 }
-                if (block.getType() == Material.SNOW) {
-                    if (snowSmoothing) {
-                        for (BlockFace face : LandslidePlugin.horizontalFaces) {
-                            Block neighbour = block.getRelative(face);
-                            if (neighbour.getType() == Material.SNOW || neighbour.getType() == Material.AIR && SlideManager.isSolid(neighbour.getRelative(BlockFace.DOWN).getType())) {
-                                int diff = getSnowThicknessDifference(block, neighbour);
-                                if (modifier > 0 && diff > 0) {
-                                    block = neighbour;
-                                    break;
-                                } else if (modifier < 0 && diff < 0) {
-                                    block = neighbour;
-                                    break;
-                                }
-                            }
-                        }
-                    }
-                    int newData = block.getData() + modifier;
-                    if (block.getType() == Material.AIR) {
-                        block.setTypeIdAndData(Material.SNOW.getId(), (byte) 0, true);
-                    } else if (newData >= 7) {
-                        block.setTypeIdAndData(Material.SNOW_BLOCK.getId(), (byte) 0, true);
-                        if (newData > 7) {
-                            block.getRelative(BlockFace.UP).setTypeIdAndData(Material.SNOW.getId(), (byte) (newData - 7), true);
-                        }
-                    } else if (newData >= 0) {
-                        block.setData((byte) newData);
-                    } else {
-                        if (meltAway || below.getType() == Material.SNOW_BLOCK) {
-                            block.setTypeIdAndData(Material.AIR.getId(), (byte) 0, true);
-                            if (below.getType() == Material.SNOW_BLOCK && newData < -1) {
-                                below.setTypeIdAndData(Material.SNOW.getId(), (byte) (newData + 8), true);
-                            }
-                        } else {
-                            block.setTypeIdAndData(Material.SNOW.getId(), (byte) 0, true);
-                        }
-                    }
-                } else if (block.getType() == Material.SNOW_BLOCK && modifier < 0) {
-                    block.setTypeIdAndData(Material.SNOW.getId(), (byte) (7 + modifier), true);
-                } else if (block.getType() == Material.AIR && modifier < 0 && below.getType() == Material.SNOW_BLOCK) {
-                    below.setTypeIdAndData(Material.SNOW.getId(), (byte) (7 + modifier), true);
+            }
+            changes.add(w, pos, job.results[i] >> 4, (byte) (job.results[i] & 0xF));
+            applied++;
+        }
+        int recorded = 0;
+        for (int i = 0; i < job.nChunks; i++) {
+            if (job.modes[i] == RECORD) {
+                int chunkX = job.snapshots[i].getX(), chunkZ = job.snapshots[i].getZ();
+                if (job.records[i] != null) {
+                    pass.store.put(BlockPos.chunkKey(chunkX, chunkZ), job.records[i]);
+                    recorded++;
+                } else if (w.isChunkLoaded(chunkX, chunkZ)) {
+                    // nothing to record, but don't capture it again on every pass while it stays dormant
+                    pass.emptyChunks.add(BlockPos.chunkKey(chunkX, chunkZ));
                 }
             }
         }
+        Debugger.getInstance().debug(2, "snow job for " + w.getName() + ": " + job.nChunks + " chunks, "
+                + job.nResults + " changes computed, " + applied + " applied, " + recorded + " chunks now dormant");
     }
 
-    private int getSnowThicknessDifference(Block b1, Block b2) {
-        return getSnowThickness(b1) - getSnowThickness(b2);
+    /**
+     * Work out how far the world's sky light is currently dimmed by the time of day and the
+     * weather, in the same way as vanilla does when it reports a block's light level.
+     *
+     * @param world the world
+     * @return the amount to subtract from a block's sky light, 0-11
+     */
+    private static int getSkyDarkening(World world) {
+        float t = (int) (world.getTime() % 24000L) / 24000.0f - 0.25f;
+        if (t < 0.0f) {
+            t += 1.0f;
+        }
+        float angle = t + ((1.0f - (float) ((Math.cos(t * Math.PI) + 1.0) / 2.0)) - t) / 3.0f;
+        float f = 1.0f - ((float) Math.cos(angle * Math.PI * 2.0) * 2.0f + 0.5f);
+        f = 1.0f - Math.max(0.0f, Math.min(1.0f, f));
+        if (world.hasStorm()) {
+            f *= 1.0f - 5.0f / 16.0f;
+        }
+        if (world.isThundering()) {
+            f *= 1.0f - 5.0f / 16.0f;
+        }
+        return (int) ((1.0f - f) * 11.0f);
     }
 
-    private int getSnowThickness(Block b) {
-        switch (b.getType()) {
-            case SNOW:
-                return b.getData() + 1;
-            case SNOW_BLOCK:
-                return 8;
-            default:
-                return 0;
+    private static int getSnowThickness(int type, int data) {
+        if (type == Material.SNOW.getId()) {
+            return data + 1;
+        } else if (type == Material.SNOW_BLOCK.getId()) {
+            return 8;
+        } else {
+            return 0;
         }
     }
 
-    private class ChunkProcessor extends BukkitRunnable {
-        private static final int MAX_CHUNKS_PER_TICK = 30;
-        private final World w;
-        private final Chunk[] chunks;
+    /**
+     * One resumable pass over a world's loaded chunks, along with the world's snow store and any
+     * dormant chunks waiting to catch up.
+     */
+    private class SnowPass {
+        private final World world;
+        private final int index;
+        private final SnowStore store;
+        // loaded, dormant chunks which had no snow to record
+        private final LongHashSet emptyChunks = new LongHashSet(64);
+        private long startTick;
+        private int outstanding;
+        private long[] chunkKeys;
+        private int modifier;
+        private int limit;
+        private int idx;
+        private long[] catchUps = new long[16];
+        private int nCatchUps;
+
+        private SnowPass(World world, int index, long startTick) {
+            this.world = world;
+            this.index = index;
+            this.startTick = startTick;
+            this.store = new SnowStore(new File(plugin.getDataFolder(), "snow" + File.separator + world.getName() + ".dat"));
+            try {
+                store.load();
+            } catch (IOException e) {
+                LogUtils.warning("can't load snow state for " + world.getName() + ": " + e.getMessage());
+            }
+        }
+
+        /**
+         * Save the snow store.
+         *
+         * @param async true to save a copy of the store on the saver thread, false to save it now
+         */
+        private void save(boolean async) {
+            if (!async) {
+                write(store);
+                return;
+            }
+            final SnowStore copy = store.copy();
+            getSaver().execute(new Runnable() {
+                @Override
+                public void run() {
+                    write(copy);
+                }
+            });
+        }
+
+        private void write(SnowStore s) {
+            try {
+                s.save();
+            } catch (IOException e) {
+                LogUtils.warning("can't save snow state for " + world.getName() + ": " + e.getMessage());
+            }
+        }
+
+        /**
+         * A pass stays active until all of its chunks have been captured and every job it sent
+         * off has come back.
+         */
+        private boolean isActive() {
+            return chunkKeys != null || outstanding > 0;
+        }
+
+        private void queueCatchUp(long chunkKey) {
+            if (nCatchUps == catchUps.length) {
+                catchUps = Arrays.copyOf(catchUps, nCatchUps * 2);
+            }
+            catchUps[nCatchUps++] = chunkKey;
+        }
+
+        /**
+         * Start a new pass, if the weather and the world's settings call for one.
+         *
+         * @return true if a pass was started
+         */
+        private boolean start(WorldContext ctx, long now) {
+            startTick = now;
+            int chance = world.hasStorm() ? ctx.getSnowFormChance() : ctx.getSnowMeltChance();
+            if (chance <= 0) {
+                return false;
+            }
+            limit = (256 * chance) / 100; // 256 blocks per chunk layer
+            modifier = world.hasStorm() ? ctx.getSnowFormRate() : -ctx.getSnowMeltRate();
+
+            Chunk[] chunks = world.getLoadedChunks();
+            chunkKeys = new long[chunks.length];
+            for (int i = 0; i < chunks.length; i++) {
+                chunkKeys[i] = BlockPos.chunkKey(chunks[i].getX(), chunks[i].getZ());
+            }
+            idx = 0;
+            return true;
+        }
+
+        /**
+         * Capture any chunks waiting to catch up, then this tick's share of the remaining chunks
+         * in the pass, and send them off to be worked on: enough to finish the pass by the end of
+         * the interval, or as many as the time budget allows.  At least one chunk is always
+         * captured, so a pass can't be starved completely.
+         */
+        private void run(WorldContext ctx, long since, int interval) {
+            int[] playerChunks = null;
+            SnowJob job = null;
+            if (nCatchUps > 0) {
+                playerChunks = getPlayerChunks(world);
+                if (job == null) {
+                    job = newJob();
+                }
+                int n = 0;
+                while (nCatchUps > 0 && (n++ == 0 || budget.hasTimeLeft(since))) {
+                    long key = catchUps[--nCatchUps];
+                    capture(job, ctx, BlockPos.chunkKeyX(key), BlockPos.chunkKeyZ(key), playerChunks, false);
+                }
+            }
+            if (chunkKeys != null) {
+                if (playerChunks == null) {
+                    playerChunks = getPlayerChunks(world);
+                }
+                if (job == null) {
+                    job = newJob();
+                }
+                int remaining = chunkKeys.length - idx;
+                int ticksLeft = (int) Math.max(1, startTick + interval - tickCount);
+                int quota = (remaining + ticksLeft - 1) / ticksLeft;
+                for (int n = 0; n < quota; n++) {
+                    if (n > 0 && !budget.hasTimeLeft(since)) {
+                        break;
+                    }
+                    capture(job, ctx, BlockPos.chunkKeyX(chunkKeys[idx]), BlockPos.chunkKeyZ(chunkKeys[idx]), playerChunks, true);
+                    idx++;
+                }
+                if (idx >= chunkKeys.length) {
+                    Debugger.getInstance().debug(2, "snow pass over " + world.getName() + " finished: "
+                            + chunkKeys.length + " chunks in " + (tickCount - startTick + 1) + " ticks");
+                    chunkKeys = null;
+                }
+            }
+            if (job != null && job.nChunks > 0) {
+                submit(job);
+            }
+        }
+
+        /**
+         * Add a loaded chunk to a job, in whichever mode it needs: catch up if it was dormant and is
+         * now live, record if it was live and is now dormant, and otherwise simulate if it's live
+         * and part of the pass.
+         */
+        private void capture(SnowJob job, WorldContext ctx, int chunkX, int chunkZ, int[] playerChunks, boolean simulate) {
+            if (!world.isChunkLoaded(chunkX, chunkZ)) {
+                return;
+            }
+            long key = BlockPos.chunkKey(chunkX, chunkZ);
+            SnowStore.Record rec = store.get(key);
+            boolean live = isLive(chunkX, chunkZ, playerChunks);
+            if (rec != null) {
+                if (live) {
+                    store.remove(key);
+                    // each pass samples chance% of a chunk's columns, on average
+                    double passesPerTick = 1.0 / interval;
+                    double form = (store.getFormClock() - rec.getFormClock()) * passesPerTick * ctx.getSnowFormChance() / 100.0 * ctx.getSnowFormRate();
+                    double melt = (store.getMeltClock() - rec.getMeltClock()) * passesPerTick * ctx.getSnowMeltChance() / 100.0 * ctx.getSnowMeltRate();
+                    job.add(world.getChunkAt(chunkX, chunkZ).getChunkSnapshot(true, true, true), CATCH_UP, rec, form, melt);
+                }
+            } else if (live) {
+                emptyChunks.remove(key);
+                if (simulate) {
+                    job.add(world.getChunkAt(chunkX, chunkZ).getChunkSnapshot(true, true, true), SIMULATE, null, 0.0, 0.0);
+                }
+            } else if (!emptyChunks.contains(key)) {
+                job.add(world.getChunkAt(chunkX, chunkZ).getChunkSnapshot(true, true, true), RECORD,
+                        new SnowStore.Record(store.getFormClock(), store.getMeltClock()), 0.0, 0.0);
+            }
+        }
+
+        private SnowJob newJob() {
+            ConfigSnapshot snap = plugin.getSnapshot();
+            return new SnowJob(this, modifier, limit, world.getMaxHeight(), snap.isSnowSmoothing(), snap.isSnowMeltAway(), snap.getSnowMeltLightLevel(),
+                    getSkyDarkening(world), plugin.getRandom().nextLong());
+        }
+
+        private void submit(final SnowJob job) {
+            outstanding++;
+            plugin.getAsyncEvaluator().execute(new Runnable() {
+                @Override
+                public void run() {
+                    job.compute();
+                    try {
+                        Bukkit.getScheduler().runTask(plugin, new Runnable() {
+                            @Override
+                            public void run() {
+                                // the plugin may have been disabled while the task was queued
+                                if (plugin.isEnabled()) {
+                                    applyJob(job);
+                                }
+                            }
+                        });
+                    } catch (IllegalPluginAccessException e) {
+                        // the plugin has been disabled, so drop the results
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Works out the snow changes for a set of chunk snapshots.  Simulated chunks are sampled in
+     * the same way as they used to be directly on the world, against an overlay of the changes
+     * made so far, so that two samples in the same column see each other's work.  Smoothing
+     * doesn't look across chunk edges, since neighbouring chunks may not have been captured.
+     */
+    private static class SnowJob {
+        private static final int AIR = 0;
+        private static final int SNOW = Material.SNOW.getId();
+        private static final int SNOW_BLOCK = Material.SNOW_BLOCK.getId();
+        // the most layers a record can hold: a snow block with a 7-layer snow layer on top
+        private static final int MAX_DEPTH = 15;
+
+        private final SnowPass pass;
         private final int modifier;
         private final int limit;
-        private int idx;
+        private final int maxHeight;
+        private final boolean smoothing;
+        private final boolean meltAway;
+        private final int meltLightLevel;
+        // subtracted from snapshot sky light, which is always the full daytime level
+        private final int skyDarkening;
+        private final long seed;
+        // packed block position -> (type << 4) | data, for blocks changed so far in the current chunk
+        private final LongIntHashMap overlay = new LongIntHashMap(64);
+        private final LongIntHashMap original = new LongIntHashMap(64);
+        private ChunkSnapshot cs;
+        private int baseX, baseZ;
+        // set by stackBase()
+        private int depth;
+
+        private ChunkSnapshot[] snapshots = new ChunkSnapshot[8];
+        private int[] modes = new int[8];
+        private SnowStore.Record[] records = new SnowStore.Record[8];
+        private double[] formLayers = new double[8];
+        private double[] meltLayers = new double[8];
+        private int nChunks;
 
-        private ChunkProcessor(World w, int modifier, int limit) {
-            this.w = w;
+        private long[] positions = new long[64];
+        private int[] expected = new int[64];
+        private int[] results = new int[64];
+        private int nResults;
+
+        private SnowJob(SnowPass pass, int modifier, int limit, int maxHeight,
+                        boolean smoothing, boolean meltAway, int meltLightLevel, int skyDarkening, long seed) {
+            this.pass = pass;
             this.modifier = modifier;
             this.limit = limit;
-            chunks = w.getLoadedChunks();
-            idx = 0;
+            this.maxHeight = maxHeight;
+            this.smoothing = smoothing;
+            this.meltAway = meltAway;
+            this.meltLightLevel = meltLightLevel;
+            this.skyDarkening = skyDarkening;
+            this.seed = seed;
+        }
+
+        private void add(ChunkSnapshot snapshot, int mode, SnowStore.Record record, double form, double melt) {
+            if (nChunks == snapshots.length) {
+                int cap = nChunks * 2;
+                snapshots = Arrays.copyOf(snapshots, cap);
+                modes = Arrays.copyOf(modes, cap);
+                records = Arrays.copyOf(records, cap);
+                formLayers = Arrays.copyOf(formLayers, cap);
+                meltLayers = Arrays.copyOf(meltLayers, cap);
+            }
+            snapshots[nChunks] = snapshot;
+            modes[nChunks] = mode;
+            records[nChunks] = record;
+            formLayers[nChunks] = form;
+            meltLayers[nChunks++] = melt;
+        }
+
+        private void compute() {
+            Random rnd = new Random(seed);
+            for (int c = 0; c < nChunks; c++) {
+                cs = snapshots[c];
+                baseX = cs.getX() << 4;
+                baseZ = cs.getZ() << 4;
+                switch (modes[c]) {
+                    case SIMULATE:
+                        for (int i = 0; i < limit; i++) {
+                            sample(rnd.nextInt(16), rnd.nextInt(16));
+                        }
+                        break;
+                    case CATCH_UP:
+                        catchUp(records[c], formLayers[c], meltLayers[c], rnd);
+                        break;
+                    case RECORD:
+                        // only cold columns are caught up later, so only they are worth recording
+                        boolean any = false;
+                        for (int x = 0; x < 16; x++) {
+                            for (int z = 0; z < 16; z++) {
+                                stackBase(x, z);
+                                if (depth > 0 && cs.getRawBiomeTemperature(x, z) < 0.1) {
+                                    records[c].setDepth(x, z, depth);
+                                    any = true;
+                                }
+                            }
+                        }
+                        if (!any) {
+                            records[c] = null;
+                        }
+                        break;
+                }
+                collect();
+            }
+        }
+
+        private void sample(int x, int z) {
+            int y = cs.getHighestBlockYAt(x, z);
+            if (y <= 0 || y >= maxHeight) {
+                return;
+            }
+            int light = getLightLevel(x, y, z);
+            if (cs.getRawBiomeTemperature(x, z) >= 0.1 || (modifier <= 0 && light <= meltLightLevel)) {
+                return;
+            }
+            int type = get(x, y, z) >> 4;
+            if (type == SNOW) {
+                if (smoothing) {
+                    int thickness = getSnowThickness(type, get(x, y, z) & 0xF);
+                    for (BlockFace face : LandslidePlugin.horizontalFaces) {
+                        int nx = x + face.getModX(), nz = z + face.getModZ();
+                        if (nx < 0 || nx > 15 || nz < 0 || nz > 15) {
+                            continue;
+                        }
+                        int neighbour = get(nx, y, nz);
+                        if (neighbour >> 4 == SNOW || neighbour >> 4 == AIR && MaterialFlags.isSolid(get(nx, y - 1, nz) >> 4)) {
+                            int diff = thickness - getSnowThickness(neighbour >> 4, neighbour & 0xF);
+                            if (modifier > 0 && diff > 0 || modifier < 0 && diff < 0) {
+                                x = nx;
+                                z = nz;
+                                break;
+                            }
+                        }
+                    }
+                }
+                int target = get(x, y, z);
+                int below = get(x, y - 1, z) >> 4;
+                int newData = (target & 0xF) + modifier;
+                if (target >> 4 == AIR) {
+                    set(x, y, z, SNOW, 0);
+                } else if (newData >= 7) {
+                    set(x, y, z, SNOW_BLOCK, 0);
+                    if (newData > 7 && y + 1 < maxHeight) {
+                        set(x, y + 1, z, SNOW, newData - 7);
+                    }
+                } else if (newData >= 0) {
+                    set(x, y, z, SNOW, newData);
+                } else if (meltAway || below == SNOW_BLOCK) {
+                    set(x, y, z, AIR, 0);
+                    if (below == SNOW_BLOCK && newData < -1) {
+                        set(x, y - 1, z, SNOW, newData + 8);
+                    }
+                } else {
+                    set(x, y, z, SNOW, 0);
+                }
+            } else if (type == SNOW_BLOCK && modifier < 0) {
+                set(x, y, z, SNOW, 7 + modifier);
+            } else if (type == AIR && modifier < 0 && get(x, y - 1, z) >> 4 == SNOW_BLOCK) {
+                set(x, y - 1, z, SNOW, 7 + modifier);
+            }
         }
 
-        @Override
-        public void run() {
-            int n = 0;
-            while (idx < chunks.length) {
-                if (chunks[idx].isLoaded()) {
-                    processOneChunk(w, chunks[idx], modifier, limit);
+
+        /**
+         * Apply the forming and melting a dormant chunk missed to each of its snowy columns.
+         */
+        private void catchUp(SnowStore.Record rec, double form, double melt, Random rnd) {
+            for (int x = 0; x < 16; x++) {
+                for (int z = 0; z < 16; z++) {
+                    int y0 = stackBase(x, z);
+                    int d = depth;
+                    if (d == 0 || d != rec.getDepth(x, z) || cs.getRawBiomeTemperature(x, z) >= 0.1) {
+                        continue;
+                    }
+                    int top = d >= 8 ? y0 + 1 : y0;
+                    int light = top < maxHeight ? getLightLevel(x, top, z) : 15 - skyDarkening;
+                    int delta = round(form, rnd) - (light > meltLightLevel ? round(melt, rnd) : 0);
+                    int nd = Math.max(meltAway ? 0 : 1, Math.min(MAX_DEPTH, d + delta));
+                    if (nd > 8 && (y0 + 1 >= maxHeight || d <= 8 && get(x, y0 + 1, z) >> 4 != AIR)) {
+                        nd = 8;
+                    }
+                    if (nd == d) {
+                        continue;
+                    }
+                    set(x, y0, z, nd == 0 ? AIR : nd < 8 ? SNOW : SNOW_BLOCK, nd > 0 && nd < 8 ? nd - 1 : 0);
+                    if (nd > 8) {
+                        set(x, y0 + 1, z, SNOW, nd - 9);
+                    } else if (d > 8) {
+                        set(x, y0 + 1, z, AIR, 0);
+                    }
                 }
-                idx++;
-                if (++n >= MAX_CHUNKS_PER_TICK) {
-                    break;
+            }
+        }
+
+        /**
+         * Find the snow at the top of a column: a snow layer, a snow block, or a snow layer on a
+         * snow block.  The depth, in layers, is left in {@link #depth}.
+         *
+         * @return the Y coordinate of the lowest block of the snow
+         */
+        private int stackBase(int x, int z) {
+            depth = 0;
+            int y = cs.getHighestBlockYAt(x, z);
+            if (y <= 0 || y >= maxHeight) {
+                return y;
+            }
+            int top = get(x, y, z), below = get(x, y - 1, z) >> 4;
+            if (top >> 4 == SNOW) {
+                depth = (top & 0xF) + 1;
+                if (below == SNOW_BLOCK) {
+                    depth = Math.min(MAX_DEPTH, depth + 8);
+                    return y - 1;
                 }
+                return y;
+            } else if (top >> 4 == AIR && below == SNOW_BLOCK) {
+                depth = 8;
+                return y - 1;
+            }
+            return y;
+        }
+
+        /**
+         * The block's light level as the world would currently report it.
+         */
+        private int getLightLevel(int x, int y, int z) {
+            return Math.max(cs.getBlockSkyLight(x, y, z) - skyDarkening, cs.getBlockEmittedLight(x, y, z));
+        }
+
+        private static int round(double val, Random rnd) {
+            int n = (int) val;
+            return rnd.nextDouble() < val - n ? n + 1 : n;
+        }
+
+        private int get(int x, int y, int z) {
+            long pos = BlockPos.pack(baseX + x, y, baseZ + z);
+            if (overlay.containsKey(pos)) {
+                return overlay.get(pos, 0);
+            }
+            return (cs.getBlockTypeId(x, y, z) << 4) | cs.getBlockData(x, y, z);
+        }
+
+        private void set(int x, int y, int z, int type, int data) {
+            long pos = BlockPos.pack(baseX + x, y, baseZ + z);
+            if (!original.containsKey(pos)) {
+                original.put(pos, get(x, y, z));
             }
-            if (idx >= chunks.length) {
-                cancel();
+            overlay.put(pos, (type << 4) | (data & 0xF));
+        }
+
+        /**
+         * Move the net changes for the current chunk into the result arrays.
+         */
+        private void collect() {
+            long[] keys = overlay.rawKeys();
+            for (int i = 0; i < keys.length; i++) {
+                long pos = keys[i];
+                if (pos == Long.MIN_VALUE) {
+                    continue;
+                }
+                int was = original.get(pos, 0), now = overlay.rawValue(i);
+                if (was == now) {
+                    continue;
+                }
+                if (nResults == positions.length) {
+                    positions = Arrays.copyOf(positions, nResults * 2);
+                    expected = Arrays.copyOf(expected, nResults * 2);
+                    results = Arrays.copyOf(results, nResults * 2);
+                }
+                positions[nResults] = pos;
+                expected[nResults] = was;
+                results[nResults++] = now;
             }
+            overlay.clear();
+            original.clear();
         }
     }
 }
@@ -0,0 +1,189 @@
+package me.pv5mc.landslide;
+
+/*
+This file is part of Landslide
+
+Landslide is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Landslide is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Landslide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Snow state for one world's dormant chunks: those which are unloaded, or loaded but outside the
+ * snow simulation radius.
+ * <p>
+ * Each record holds the snow depth of every column in a chunk, in layers (0-15), packed two
+ * columns to a byte, along with the world's snow clocks at the time the record was made.  The
+ * snow clocks count the ticks the world has spent in snow-forming (stormy) and snow-melting
+ * (clear) weather; the difference between a record's clocks and the current clocks is how much
+ * forming and melting the chunk has missed, which is applied in one go when it wakes up.
+ */
+public class SnowStore {
+    private static final int MAGIC = 0x534E4F57;  // "SNOW"
+    private static final int VERSION = 1;
+
+    public static class Record {
+        private final byte[] depths = new byte[128];
+        private final long formClock;
+        private final long meltClock;
+
+        public Record(long formClock, long meltClock) {
+            this.formClock = formClock;
+            this.meltClock = meltClock;
+        }
+
+        public long getFormClock() {
+            return formClock;
+        }
+
+        public long getMeltClock() {
+            return meltClock;
+        }
+
+        public int getDepth(int x, int z) {
+            int i = (z << 4) | x;
+            return (depths[i >> 1] >> ((i & 1) << 2)) & 0xF;
+        }
+
+        public void setDepth(int x, int z, int depth) {
+            int i = (z << 4) | x, shift = (i & 1) << 2;
+            depths[i >> 1] = (byte) ((depths[i >> 1] & ~(0xF << shift)) | ((depth & 0xF) << shift));
+        }
+    }
+
+    private final File file;
+    private final LongObjectHashMap<Record> records = new LongObjectHashMap<Record>(64);
+    private long formClock;
+    private long meltClock;
+
+    public SnowStore(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Make a copy of the store which can be saved on another thread while this one carries on
+     * changing.  Records are never changed once they have been put in a store, so they are shared.
+     *
+     * @return the copy
+     */
+    public SnowStore copy() {
+        SnowStore res = new SnowStore(file);
+        res.formClock = formClock;
+        res.meltClock = meltClock;
+        long[] keys = records.rawKeys();
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != Long.MIN_VALUE) {
+                res.records.put(keys[i], records.rawValue(i));
+            }
+        }
+        return res;
+    }
+
+    public Record get(long chunkKey) {
+        return records.get(chunkKey);
+    }
+
+    public void put(long chunkKey, Record record) {
+        records.put(chunkKey, record);
+    }
+
+    public void remove(long chunkKey) {
+        records.remove(chunkKey);
+    }
+
+    public long getFormClock() {
+        return formClock;
+    }
+
+    public long getMeltClock() {
+        return meltClock;
+    }
+
+    /**
+     * Advance the snow clocks by one tick.
+     *
+     * @param storm true if the world currently has a storm
+     */
+    public void advance(boolean storm) {
+        if (storm) {
+            formClock++;
+        } else {
+            meltClock++;
+        }
+    }
+
+    public void load() throws IOException {
+        records.clear();
+        formClock = meltClock = 0L;
+        if (!file.exists()) {
+            return;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(file + ": not a snow store, or an unknown version");
+            }
+            formClock = in.readLong();
+            meltClock = in.readLong();
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                long key = in.readLong();
+                Record rec = new Record(in.readLong(), in.readLong());
+                in.readFully(rec.depths);
+                records.put(key, rec);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    public void save() throws IOException {
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("can't create " + dir);
+        }
+        // write to a temporary file first, so a failed save can't lose the previous one
+        File tmp = new File(dir, file.getName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(formClock);
+            out.writeLong(meltClock);
+            out.writeInt(records.size());
+            long[] keys = records.rawKeys();
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != Long.MIN_VALUE) {
+                    Record rec = records.rawValue(i);
+                    out.writeLong(keys[i]);
+                    out.writeLong(rec.formClock);
+                    out.writeLong(rec.meltClock);
+                    out.write(rec.depths);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        if (file.exists() && !file.delete() || !tmp.renameTo(file)) {
+            throw new IOException("can't replace " + file);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package me.pv5mc.landslide;
+
+/*
+This file is part of Landslide
+
+Landslide is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Landslide is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Landslide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import org.bukkit.Bukkit;
+
+/**
+ * Track the server's recent tick duration (MSPT) and derive a per-tick time budget from it.  The
+ * budget backs off multiplicatively while ticks are running long, and creeps back up
+ * additively once the server has caught up.
+ * <p>
+ * On Paper, the server's own average tick time is used.  Elsewhere there is no way for a plugin
+ * to time the server's tick, so it is estimated from the wall-clock interval between successive
+ * calls to {@link #startTick}, which must be made once per server tick; that only rises above
+ * 50ms once the server can no longer keep up 20 TPS.
+ * <p>
+ * The target and the budget range are passed in on every call to {@link #startTick},
+ * so the caller can take them straight from the current configuration snapshot.
+ */
+public class TickBudget {
+    private static final double SMOOTHING = 0.1;
+    private static final double BACKOFF = 0.75;
+    private static final long NANOS_PER_MS = 1000000L;
+
+    // cleared the first time the server turns out not to be running Paper
+    private static boolean serverTickTime = true;
+
+    private long budget = 5 * NANOS_PER_MS;
+
+    private double averageMspt = 50.0;
+    private long lastTickStart;
+
+    /**
+     * Update the tick time average and adjust the budget.  Called once per server tick.
+     *
+     * @param targetMspt the tick time above which the budget backs off
+     * @param minMs      the smallest budget allowed, in milliseconds
+     * @param maxMs      the largest budget allowed, in milliseconds
+     */
+    public void startTick(double targetMspt, double minMs, double maxMs) {
+        long now = System.nanoTime();
+        if (serverTickTime) {
+            try {
+                averageMspt = Bukkit.getAverageTickTime();
+            } catch (NoSuchMethodError e) {
+                serverTickTime = false;
+            }
+        }
+        if (!serverTickTime && lastTickStart != 0) {
+            double interval = (now - lastTickStart) / (double) NANOS_PER_MS;
+            averageMspt += SMOOTHING * (interval - averageMspt);
+        }
+        lastTickStart = now;
+
+        long minBudget = (long) (minMs * NANOS_PER_MS);
+        long maxBudget = Math.max(minBudget, (long) (maxMs * NANOS_PER_MS));
+        if (averageMspt > targetMspt) {
+            budget = Math.max(minBudget, Math.min(maxBudget, (long) (budget * BACKOFF)));
+        } else {
+            budget = Math.min(maxBudget, budget + Math.max(minBudget / 10, 1L));
+        }
+    }
+
+    /**
+     * Check if there is any time left in this tick's budget.
+     *
+     * @param since the System.nanoTime() at which the caller started its work for this tick
+     * @return true if the caller may carry on working
+     */
+    public boolean hasTimeLeft(long since) {
+        return System.nanoTime() - since < budget;
+    }
+
+    /**
+     * Check if there is any time left in this tick's budget, keeping some of it back for work
+     * which has to be done later in the tick regardless.
+     *
+     * @param since    the System.nanoTime() at which the caller started its work for this tick
+     * @param reserved nanoseconds to keep back
+     * @return true if the caller may carry on working
+     */
+    public boolean hasTimeLeft(long since, long reserved) {
+        return System.nanoTime() - since + reserved < budget;
+    }
+
+    public long getBudgetNanos() {
+        return budget;
+    }
+}
@@ -0,0 +1,316 @@
+package me.pv5mc.landslide;
+
+/*
+This file is part of Landslide
+
+Landslide is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Landslide is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Landslide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+
+/**
+ * A hierarchical timing wheel for scheduled block operations.  Entries are stored in parallel
+ * primitive arrays and identified by an integer handle; buckets are intrusive singly-linked
+ * lists threaded through those arrays, so scheduling and expiry are O(1) and nothing is
+ * allocated once the pool has grown to its working size.
+ * <p>
+ * There are four levels of 64 slots each, giving exact placement for delays of up to 2^24 ticks.
+ * Longer delays are parked in the top level and re-cascaded until they come into range.
+ * <p>
+ * Entries whose time has come are moved to a FIFO ready queue by {@link #advance()}; the owner
+ * drains that queue with {@link #poll()} and is free to leave entries there for a later tick.
+ */
+public class TimingWheel {
+    public static final int NIL = -1;
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final long HORIZON = 1L << (SLOT_BITS * LEVELS);
+
+    private final int[] heads = new int[SLOTS * LEVELS];
+
+    // per-entry storage, indexed by handle
+    private long[] pos;
+    private int[] info;
+    private int[] world;
+    private int[] tag;
+    private double[] vec;
+    private Object[] ref;
+    private long[] due;
+    private int[] next;
+
+    private int highWater;
+    private int freeHead;
+    private int size;
+    private int readyHead, readyTail, readySize;
+    private long now;
+
+    public TimingWheel(int initialCapacity) {
+        int cap = Math.max(initialCapacity, 16);
+        pos = new long[cap];
+        info = new int[cap];
+        world = new int[cap];
+        tag = new int[cap];
+        vec = new double[cap * 6];
+        ref = new Object[cap];
+        due = new long[cap];
+        next = new int[cap];
+        Arrays.fill(heads, NIL);
+        freeHead = readyHead = readyTail = NIL;
+        highWater = size = readySize = 0;
+        now = 0L;
+    }
+
+    /**
+     * Schedule a new entry.
+     *
+     * @param delay the delay in ticks; 0 means the entry becomes ready on the next call to advance()
+     * @param pos   a packed block position, see {@link BlockPos}
+     * @param info  owner-defined packed information about the operation
+     * @param world owner-defined world index
+     * @return the new entry's handle, which may be used to attach extra data
+     */
+    public int add(int delay, long pos, int info, int world) {
+        int h = allocate();
+        this.pos[h] = pos;
+        this.info[h] = info;
+        this.world[h] = world;
+        this.tag[h] = 0;
+        this.due[h] = now + Math.max(delay, 0);
+        insert(h);
+        size++;
+        return h;
+    }
+
+    /**
+     * Move the wheel on by one tick, transferring all entries which are now due onto the
+     * ready queue.
+     */
+    public void advance() {
+        // when a coarser slot's span comes around, redistribute its entries to the finer levels
+        for (int level = 1; level < LEVELS; level++) {
+            if ((now & ((1L << (SLOT_BITS * level)) - 1)) != 0) {
+                break;
+            }
+            cascade(level, (int) ((now >>> (SLOT_BITS * level)) & SLOT_MASK));
+        }
+        int idx = (int) (now & SLOT_MASK);
+        int h = heads[idx];
+        heads[idx] = NIL;
+        while (h != NIL) {
+            int n = next[h];
+            enqueueReady(h);
+            h = n;
+        }
+        now++;
+    }
+
+    /**
+     * Take the next entry from the ready queue.  The caller must {@link #release(int)} the handle
+     * once it has finished with the entry's data.
+     *
+     * @return an entry handle, or NIL if nothing is ready
+     */
+    public int poll() {
+        int h = readyHead;
+        if (h != NIL) {
+            readyHead = next[h];
+            if (readyHead == NIL) {
+                readyTail = NIL;
+            }
+            readySize--;
+        }
+        return h;
+    }
+
+    /**
+     * Return an entry to the pool.
+     *
+     * @param h the entry handle
+     */
+    public void release(int h) {
+        ref[h] = null;
+        next[h] = freeHead;
+        freeHead = h;
+        size--;
+    }
+
+    /**
+     * Remove every entry with the given world index, whether scheduled or on the ready queue.
+     * Used when a world is unloaded, so that its index may safely be reused.
+     *
+     * @param w the world index
+     * @return the number of entries removed
+     */
+    public int removeWorld(int w) {
+        int removed = 0;
+        for (int i = 0; i < heads.length; i++) {
+            int prev = NIL;
+            int h = heads[i];
+            while (h != NIL) {
+                int n = next[h];
+                if (world[h] == w) {
+                    if (prev == NIL) {
+                        heads[i] = n;
+                    } else {
+                        next[prev] = n;
+                    }
+                    release(h);
+                    removed++;
+                } else {
+                    prev = h;
+                }
+                h = n;
+            }
+        }
+        int prev = NIL;
+        int h = readyHead;
+        while (h != NIL) {
+            int n = next[h];
+            if (world[h] == w) {
+                if (prev == NIL) {
+                    readyHead = n;
+                } else {
+                    next[prev] = n;
+                }
+                if (readyTail == h) {
+                    readyTail = prev;
+                }
+                readySize--;
+                release(h);
+                removed++;
+            } else {
+                prev = h;
+            }
+            h = n;
+        }
+        return removed;
+    }
+
+    /**
+     * @return the number of entries either scheduled or waiting on the ready queue
+     */
+    public int size() {
+        return size;
+    }
+
+    public int readySize() {
+        return readySize;
+    }
+
+    public long getCurrentTick() {
+        return now;
+    }
+
+    public long getPos(int h) {
+        return pos[h];
+    }
+
+    public int getInfo(int h) {
+        return info[h];
+    }
+
+    public int getWorld(int h) {
+        return world[h];
+    }
+
+    /**
+     * Attach an owner-defined tag to an entry.  Entries start with a tag of 0.
+     *
+     * @param h the entry handle
+     * @param t the tag
+     */
+    public void setTag(int h, int t) {
+        tag[h] = t;
+    }
+
+    public int getTag(int h) {
+        return tag[h];
+    }
+
+    public void setVector(int h, int idx, double val) {
+        vec[h * 6 + idx] = val;
+    }
+
+    public double getVector(int h, int idx) {
+        return vec[h * 6 + idx];
+    }
+
+    public void setRef(int h, Object o) {
+        ref[h] = o;
+    }
+
+    public Object getRef(int h) {
+        return ref[h];
+    }
+
+    private void insert(int h) {
+        long diff = due[h] - now;
+        long target = diff < HORIZON ? due[h] : now + HORIZON - 1;
+        if (diff >= HORIZON) {
+            diff = HORIZON - 1;
+        }
+        int level = 0;
+        while (level < LEVELS - 1 && diff >= (1L << (SLOT_BITS * (level + 1)))) {
+            level++;
+        }
+        int idx = level * SLOTS + (int) ((target >>> (SLOT_BITS * level)) & SLOT_MASK);
+        next[h] = heads[idx];
+        heads[idx] = h;
+    }
+
+    private void cascade(int level, int slot) {
+        int idx = level * SLOTS + slot;
+        int h = heads[idx];
+        heads[idx] = NIL;
+        while (h != NIL) {
+            int n = next[h];
+            insert(h);
+            h = n;
+        }
+    }
+
+    private void enqueueReady(int h) {
+        next[h] = NIL;
+        if (readyTail == NIL) {
+            readyHead = h;
+        } else {
+            next[readyTail] = h;
+        }
+        readyTail = h;
+        readySize++;
+    }
+
+    private int allocate() {
+        if (freeHead != NIL) {
+            int h = freeHead;
+            freeHead = next[h];
+            return h;
+        }
+        if (highWater == next.length) {
+            int cap = next.length * 2;
+            pos = Arrays.copyOf(pos, cap);
+            info = Arrays.copyOf(info, cap);
+            world = Arrays.copyOf(world, cap);
+            tag = Arrays.copyOf(tag, cap);
+            vec = Arrays.copyOf(vec, cap * 6);
+            ref = Arrays.copyOf(ref, cap);
+            due = Arrays.copyOf(due, cap);
+            next = Arrays.copyOf(next, cap);
+        }
+        return highWater++;
+    }
+}
@@ -0,0 +1,149 @@
+package me.pv5mc.landslide;
+
+/*
+This file is part of Landslide
+
+Landslide is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Landslide is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Landslide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import org.bukkit.World;
+
+/**
+ * Everything Landslide needs to know about one loaded world: its settings, with the defaults
+ * already merged in, and a small integer index which identifies the world in per-world tables.
+ * <p>
+ * Contexts are created when a world is loaded and released when it is unloaded; see
+ * {@link PerWorldConfiguration#getContext(World)}.  The settings fields are written only by
+ * {@link PerWorldConfiguration}, which refreshes them whenever the configuration changes.
+ */
+public class WorldContext {
+    private final World world;
+    private final int index;
+
+    int generation = -1;
+    boolean enabled;
+    int cliffStability;
+    boolean dropItems;
+    int explodeEffectChance;
+    boolean fallingBlocksBounce;
+    int fallingBlockDamage;
+    boolean horizontalSlides;
+    boolean onlyWhenRaining;
+    boolean slideIntoLiquid;
+    int snowFormChance;
+    int snowMeltChance;
+    int snowFormRate;
+    int snowMeltRate;
+    int snowSlideThickness;
+    MaterialRules materialRules;
+
+    WorldContext(World world, int index) {
+        this.world = world;
+        this.index = index;
+    }
+
+    public World getWorld() {
+        return world;
+    }
+
+    /**
+     * Get this world's index.  Indexes are small and dense, and are reused once a world has been
+     * unloaded, so they are only meaningful while the world remains loaded.
+     *
+     * @return the world index
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getCliffStability() {
+        return cliffStability;
+    }
+
+    public MaterialRules getMaterialRules() {
+        return materialRules;
+    }
+
+    public int getSlideChance(int typeId, byte data) {
+        return materialRules.getSlideChance(typeId, data);
+    }
+
+    public int getDropChance(int typeId, byte data) {
+        return materialRules.getDropChance(typeId, data);
+    }
+
+    /**
+     * Get the material that a falling block of the given type should become.
+     *
+     * @param typeId block type ID
+     * @param data   block data
+     * @return the transformed type ID and data, packed as (type ID &lt;&lt; 4 | data)
+     */
+    public int getTransform(int typeId, byte data) {
+        return materialRules.getTransform(typeId, data);
+    }
+
+    public boolean getDropItems() {
+        return dropItems;
+    }
+
+    public int getExplodeEffectChance() {
+        return explodeEffectChance;
+    }
+
+    public boolean getFallingBlocksBounce() {
+        return fallingBlocksBounce;
+    }
+
+    public int getFallingBlockDamage() {
+        return fallingBlockDamage;
+    }
+
+    public boolean getHorizontalSlides() {
+        return horizontalSlides;
+    }
+
+    public boolean getOnlyWhenRaining() {
+        return onlyWhenRaining;
+    }
+
+    public boolean getSlideIntoLiquid() {
+        return slideIntoLiquid;
+    }
+
+    public int getSnowFormChance() {
+        return snowFormChance;
+    }
+
+    public int getSnowMeltChance() {
+        return snowMeltChance;
+    }
+
+    public int getSnowFormRate() {
+        return snowFormRate;
+    }
+
+    public int getSnowMeltRate() {
+        return snowMeltRate;
+    }
+
+    public int getSnowSlideThickness() {
+        return snowSlideThickness;
+    }
+}
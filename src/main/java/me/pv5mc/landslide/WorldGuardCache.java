@@ -0,0 +1,163 @@
+package me.pv5mc.landslide;
+
+/*
+This file is part of Landslide
+
+Landslide is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Landslide is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with Landslide.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldguard.bukkit.WGBukkit;
+import com.sk89q.worldguard.protection.ApplicableRegionSet;
+import com.sk89q.worldguard.protection.flags.DefaultFlag;
+import com.sk89q.worldguard.protection.flags.StateFlag;
+import com.sk89q.worldguard.protection.managers.RegionManager;
+import com.sk89q.worldguard.protection.regions.GlobalProtectedRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedCuboidRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Caches WorldGuard flag verdicts per chunk column, for the slide flag and the snow fall/melt
+ * flags.  A chunk's verdict for a flag is ALLOW or DENY if every region touching the chunk covers
+ * all of it (so any block in the chunk gets the same answer), or MIXED otherwise, in which case
+ * each block falls back to an exact query against WorldGuard's own region index.
+ * <p>
+ * WorldGuard doesn't announce region changes.  A world's verdicts are dropped when its region
+ * manager is replaced (e.g. by a region reload) or its region count changes, which catches regions
+ * being added or removed; other changes, such as a flag being set or a region being redefined,
+ * are only picked up once the configurable time-to-live has run out.
+ */
+public class WorldGuardCache implements Listener {
+    public static final int SLIDE = 0;
+    public static final int SNOW_FALL = 1;
+    public static final int SNOW_MELT = 2;
+
+    private static final int UNKNOWN = 0;
+    private static final int ALLOW = 1;
+    private static final int DENY = 2;
+    private static final int MIXED = 3;
+    private static final String PROBE_ID = "__landslide_probe__";
+
+    private final LandslidePlugin plugin;
+    private final StateFlag[] flags = {null, DefaultFlag.SNOW_FALL, DefaultFlag.SNOW_MELT};
+    private final Map<UUID, WorldVerdicts> verdicts = new HashMap<UUID, WorldVerdicts>();
+    private long lastReset = System.currentTimeMillis();
+
+    public WorldGuardCache(LandslidePlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    public void setSlideFlag(StateFlag flag) {
+        flags[SLIDE] = flag;
+        invalidate();
+    }
+
+    public void invalidate() {
+        verdicts.clear();
+        lastReset = System.currentTimeMillis();
+    }
+
+    /**
+     * Check if the given flag allows its action at the given block.
+     *
+     * @param b     the block
+     * @param which one of SLIDE, SNOW_FALL or SNOW_MELT
+     * @return true if the action is allowed
+     */
+    public boolean allows(Block b, int which) {
+        if (System.currentTimeMillis() - lastReset > plugin.getSnapshot().getWorldGuardCacheTtl() * 1000L) {
+            invalidate();
+        }
+        World w = b.getWorld();
+        RegionManager rm = WGBukkit.getRegionManager(w);
+        if (rm == null) {
+            // region support disabled for this world
+            return true;
+        }
+        WorldVerdicts worldVerdicts = verdicts.get(w.getUID());
+        if (worldVerdicts == null) {
+            worldVerdicts = new WorldVerdicts();
+            verdicts.put(w.getUID(), worldVerdicts);
+        }
+        int regionCount = rm.size();
+        if (worldVerdicts.manager != rm || worldVerdicts.regionCount != regionCount) {
+            worldVerdicts.chunks.clear();
+            worldVerdicts.manager = rm;
+            worldVerdicts.regionCount = regionCount;
+        }
+        long key = BlockPos.chunkKey(b.getX() >> 4, b.getZ() >> 4);
+        int packed = worldVerdicts.chunks.get(key, 0);
+        int shift = which * 2;
+        int verdict = (packed >> shift) & 0x3;
+        if (verdict == UNKNOWN) {
+            verdict = computeVerdict(w, rm, b.getX() >> 4, b.getZ() >> 4, flags[which]);
+            worldVerdicts.chunks.put(key, packed | (verdict << shift));
+        }
+        switch (verdict) {
+            case ALLOW:
+                return true;
+            case DENY:
+                return false;
+            default:
+                return rm.getApplicableRegions(b.getLocation()).allows(flags[which]);
+        }
+    }
+
+    private int computeVerdict(World w, RegionManager rm, int chunkX, int chunkZ, StateFlag flag) {
+        BlockVector min = new BlockVector(chunkX << 4, 0, chunkZ << 4);
+        BlockVector max = new BlockVector((chunkX << 4) + 15, w.getMaxHeight() - 1, (chunkZ << 4) + 15);
+        ApplicableRegionSet set = rm.getApplicableRegions(new ProtectedCuboidRegion(PROBE_ID, min, max));
+        for (ProtectedRegion region : set) {
+            if (!covers(region, min, max)) {
+                return MIXED;
+            }
+        }
+        Location centre = new Location(w, (chunkX << 4) + 8, 64, (chunkZ << 4) + 8);
+        return rm.getApplicableRegions(centre).allows(flag) ? ALLOW : DENY;
+    }
+
+    private static boolean covers(ProtectedRegion region, BlockVector min, BlockVector max) {
+        if (region instanceof GlobalProtectedRegion) {
+            return true;
+        } else if (!(region instanceof ProtectedCuboidRegion)) {
+            // polygonal regions could be checked too, but chunks they fully cover are rare
+            return false;
+        }
+        BlockVector rMin = region.getMinimumPoint(), rMax = region.getMaximumPoint();
+        return rMin.getBlockX() <= min.getBlockX() && rMin.getBlockY() <= min.getBlockY() && rMin.getBlockZ() <= min.getBlockZ()
+                && rMax.getBlockX() >= max.getBlockX() && rMax.getBlockY() >= max.getBlockY() && rMax.getBlockZ() >= max.getBlockZ();
+    }
+
+    @EventHandler
+    public void onWorldUnload(WorldUnloadEvent event) {
+        verdicts.remove(event.getWorld().getUID());
+    }
+
+    private static class WorldVerdicts {
+        // chunk key -> 2 bits of verdict per flag
+        private final LongIntHashMap chunks = new LongIntHashMap(256);
+        private RegionManager manager;
+        private int regionCount;
+    }
+}